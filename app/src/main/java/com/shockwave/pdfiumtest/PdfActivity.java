@@ -53,4 +53,10 @@ public class PdfActivity extends AppCompatActivity {
                 .load();
                 }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        pdf.onTrimMemory(level);
+    }
+
     }
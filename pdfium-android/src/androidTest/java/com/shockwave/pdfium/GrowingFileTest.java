@@ -0,0 +1,85 @@
+package com.shockwave.pdfium;
+
+import android.test.AndroidTestCase;
+
+import com.shockwave.pdfium.benchmark.SyntheticPdf;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A document opened with {@link PdfiumCore#newGrowingDocument} while its file is written
+ * in chunks, as a download would. The synthetic file isn't linearized, so it must only
+ * load once complete, without reading past what was written.
+ */
+public class GrowingFileTest extends AndroidTestCase {
+    private static final int PAGE_COUNT = 8;
+    private static final int CHUNK_SIZE = 4 * 1024;
+
+    private File mSource;
+    private File mDownload;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSource = SyntheticPdf.write(new File(getContext().getCacheDir(), "growing-source.pdf"),
+                PAGE_COUNT, 200);
+        mDownload = new File(getContext().getCacheDir(), "growing-download.pdf");
+        mDownload.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mSource.delete();
+        mDownload.delete();
+        super.tearDown();
+    }
+
+    public void testLoadsOnceComplete() throws IOException {
+        byte[] data = readFile(mSource);
+        PdfiumCore core = new PdfiumCore(getContext());
+        FileOutputStream out = new FileOutputStream(mDownload);
+        FileInputStream in = new FileInputStream(mDownload);
+        PdfDocument doc = null;
+        try{
+            doc = core.newGrowingDocument(in.getFD(), data.length);
+            for(int written = 0; written < data.length; written += CHUNK_SIZE){
+                assertFalse(doc.isLoaded());
+                assertEquals(0, doc.getPageCount());
+                out.write(data, written, Math.min(CHUNK_SIZE, data.length - written));
+                out.flush();
+                core.updateAvailability(doc);
+            }
+
+            assertTrue(doc.isLoaded());
+            assertTrue(doc.isComplete());
+            assertEquals(PAGE_COUNT, doc.getPageCount());
+            for(int i = 0; i < PAGE_COUNT; i++){
+                assertTrue(doc.isPageAvailable(i));
+                assertTrue(core.openPage(doc, i) != 0);
+            }
+        }finally{
+            if(doc != null) core.closeDocument(doc);
+            in.close();
+            out.close();
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int)file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try{
+            int read = 0;
+            while(read < data.length){
+                int n = in.read(data, read, data.length - read);
+                if(n < 0) throw new IOException("Unexpected end of " + file);
+                read += n;
+            }
+        }finally{
+            in.close();
+        }
+        return data;
+    }
+}
@@ -0,0 +1,248 @@
+package com.shockwave.pdfium.benchmark;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.shockwave.pdfium.PdfDocument;
+import com.shockwave.pdfium.PdfiumCore;
+import com.shockwave.pdfium.PdfiumMetrics;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Times the operations of {@link PdfiumCore} a viewer depends on, over a corpus of
+ * synthetic documents: document open, page load, page size queries, full page renders at
+ * several DPIs and tile renders.
+ * <p/>
+ * Results are written as JSON to the external files directory of the test app, one file
+ * per run, so runs of two releases can be compared:
+ * <pre>adb pull /sdcard/Android/data/&lt;test package&gt;/files/benchmarks</pre>
+ * Runs on an emulator image without a GPU: pdfium renders on the CPU only.
+ */
+public class CoreOperationsBenchmark extends AndroidTestCase {
+    private static final String TAG = "CoreOperationsBenchmark";
+
+    private static final int[] RENDER_DPIS = { 72, 150, 300 };
+    private static final int TILE_SIZE = 256;
+    private static final float TILE_ZOOM = 4;
+    private static final int TILE_DPI = 150;
+
+    private static final int OPEN_ITERATIONS = 10;
+    private static final int PAGE_LOAD_SAMPLES = 20;
+    private static final int PAGE_SIZE_ITERATIONS = 20;
+    private static final int RENDER_SAMPLES = 5;
+    private static final int TILE_SAMPLES = 16;
+
+    private static final class Corpus {
+        final String name;
+        final int pageCount;
+        final SyntheticPdf.Content content;
+        final int amount;
+
+        Corpus(String name, int pageCount, SyntheticPdf.Content content, int amount){
+            this.name = name;
+            this.pageCount = pageCount;
+            this.content = content;
+            this.amount = amount;
+        }
+    }
+
+    private static final Corpus[] CORPUS = {
+            new Corpus("text", 50, SyntheticPdf.Content.TEXT, 70),
+            new Corpus("vector", 50, SyntheticPdf.Content.VECTOR, 4000),
+            new Corpus("image", 20, SyntheticPdf.Content.IMAGE, 1024),
+            new Corpus("large", 5000, SyntheticPdf.Content.VECTOR, 20)
+    };
+
+    private interface Operation {
+        void run(int iteration) throws Exception;
+    }
+
+    private final List<String> mResults = new ArrayList<String>();
+    private PdfiumCore mCore;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCore = new PdfiumCore(getContext());
+        PdfiumMetrics.reset();
+        PdfiumMetrics.setEnabled(true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        PdfiumMetrics.setEnabled(false);
+        super.tearDown();
+    }
+
+    public void testCorpus() throws Exception {
+        for(Corpus corpus : CORPUS){
+            File file = SyntheticPdf.write(new File(getContext().getCacheDir(), "benchmark-" + corpus.name + ".pdf"),
+                    corpus.pageCount, corpus.content, corpus.amount);
+            try{
+                benchmarkDocument(corpus, file);
+            }finally{
+                file.delete();
+            }
+        }
+        writeResults();
+    }
+
+    private void benchmarkDocument(final Corpus corpus, final File file) throws Exception {
+        final FileInputStream stream = new FileInputStream(file);
+        try{
+            measure(corpus, "open", "", corpus.pageCount > 1000 ? OPEN_ITERATIONS / 2 : OPEN_ITERATIONS,
+                    new Operation() {
+                        @Override
+                        public void run(int iteration) throws Exception {
+                            PdfDocument doc = mCore.newDocument(stream.getFD());
+                            mCore.closeDocument(doc);
+                        }
+                    });
+
+            final PdfDocument doc = mCore.newDocument(stream.getFD());
+            try{
+                assertEquals(corpus.pageCount, doc.getPageCount());
+                benchmarkPages(corpus, doc);
+            }finally{
+                mCore.closeDocument(doc);
+            }
+        }finally{
+            stream.close();
+        }
+    }
+
+    private void benchmarkPages(Corpus corpus, final PdfDocument doc) throws Exception {
+        final int pageCount = doc.getPageCount();
+
+        //A capacity of one closes the page loaded before, so each sample is a cold load
+        mCore.setPageCapacity(doc, 1);
+        measure(corpus, "pageLoad", "", PAGE_LOAD_SAMPLES, new Operation() {
+            @Override
+            public void run(int iteration){
+                mCore.openPage(doc, spreadPage(iteration, PAGE_LOAD_SAMPLES, pageCount));
+            }
+        });
+        mCore.setPageCapacity(doc, 4);
+
+        measure(corpus, "pageSizes", "pages=" + pageCount, PAGE_SIZE_ITERATIONS, new Operation() {
+            @Override
+            public void run(int iteration){
+                long sum = 0;
+                for(int i = 0; i < pageCount; i++){
+                    sum += mCore.getPageWidth(doc, i) + mCore.getPageHeight(doc, i);
+                }
+                if(sum <= 0) fail("No page size");
+            }
+        });
+
+        for(int dpi : RENDER_DPIS){
+            final int width = (int)(doc.getPageWidthPoint(0) * dpi / 72);
+            final int height = (int)(doc.getPageHeightPoint(0) * dpi / 72);
+            final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            try{
+                //Keep page loads out of the render times
+                renderPage(doc, bitmap, 0, 0, width, height, 0);
+                measure(corpus, "render", "dpi=" + dpi, RENDER_SAMPLES, new Operation() {
+                    @Override
+                    public void run(int iteration){
+                        renderPage(doc, bitmap, 0, 0, width, height,
+                                   spreadPage(iteration, RENDER_SAMPLES, pageCount));
+                    }
+                });
+            }finally{
+                bitmap.recycle();
+            }
+        }
+
+        final int pageWidth = (int)(doc.getPageWidthPoint(0) * TILE_DPI / 72 * TILE_ZOOM);
+        final int pageHeight = (int)(doc.getPageHeightPoint(0) * TILE_DPI / 72 * TILE_ZOOM);
+        final int columns = (int)Math.sqrt(TILE_SAMPLES);
+        final Bitmap tile = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+        try{
+            mCore.openPage(doc, 0);
+            measure(corpus, "tile", "dpi=" + TILE_DPI + ",zoom=" + TILE_ZOOM, TILE_SAMPLES, new Operation() {
+                @Override
+                public void run(int iteration){
+                    //Tiles around the center of the page, where there is content
+                    int x = pageWidth / 2 + (iteration % columns - columns / 2) * TILE_SIZE;
+                    int y = pageHeight / 2 + (iteration / columns - columns / 2) * TILE_SIZE;
+                    renderPage(doc, tile, -x, -y, pageWidth, pageHeight, 0);
+                }
+            });
+        }finally{
+            tile.recycle();
+        }
+    }
+
+    private void renderPage(PdfDocument doc, Bitmap bitmap, int startX, int startY,
+                            int drawWidth, int drawHeight, int pageIndex){
+        mCore.renderPageBitmap(doc, bitmap, pageIndex, startX, startY, drawWidth, drawHeight);
+    }
+
+    /** @return the sample-th of samples pages spread evenly over the document */
+    private static int spreadPage(int sample, int samples, int pageCount){
+        return (int)((long)sample * pageCount / samples) % pageCount;
+    }
+
+    private void measure(Corpus corpus, String operation, String parameters, int iterations,
+                         Operation op) throws Exception {
+        long[] nanos = new long[iterations];
+        for(int i = 0; i < iterations; i++){
+            long start = System.nanoTime();
+            op.run(i);
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        long sum = 0;
+        for(long n : nanos) sum += n;
+
+        String result = String.format(Locale.US,
+                "{\"corpus\":\"%s\",\"pages\":%d,\"operation\":\"%s\",\"parameters\":\"%s\","
+                        + "\"iterations\":%d,\"meanUs\":%d,\"minUs\":%d,\"medianUs\":%d,\"maxUs\":%d}",
+                corpus.name, corpus.pageCount, operation, parameters, iterations,
+                sum / iterations / 1000, nanos[0] / 1000, nanos[iterations / 2] / 1000,
+                nanos[iterations - 1] / 1000);
+        Log.i(TAG, result);
+        mResults.add(result);
+    }
+
+    private void writeResults() throws IOException {
+        File dir = getContext().getExternalFilesDir(null);
+        if(dir == null) dir = getContext().getFilesDir();
+        dir = new File(dir, "benchmarks");
+        if(!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Can't create " + dir);
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"benchmark\":\"").append(TAG).append('"')
+            .append(",\"device\":\"").append(Build.MANUFACTURER).append(' ').append(Build.MODEL).append('"')
+            .append(",\"sdk\":").append(Build.VERSION.SDK_INT)
+            .append(",\"abi\":\"").append(Build.CPU_ABI).append('"')
+            .append(",\"cores\":").append(Runtime.getRuntime().availableProcessors())
+            .append(",\"timestamp\":").append(System.currentTimeMillis())
+            .append(",\"results\":[\n");
+        for(int i = 0; i < mResults.size(); i++){
+            json.append(mResults.get(i)).append(i + 1 < mResults.size() ? ",\n" : "\n");
+        }
+        json.append("],\"metrics\":").append(PdfiumMetrics.snapshot().toJson()).append("}\n");
+
+        File file = new File(dir, "core-" + System.currentTimeMillis() + ".json");
+        Writer out = new FileWriter(file);
+        try{
+            out.write(json.toString());
+        }finally{
+            out.close();
+        }
+        Log.i(TAG, "Results written to " + file);
+    }
+}
@@ -0,0 +1,167 @@
+package com.shockwave.pdfium.benchmark;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.shockwave.pdfium.PdfDocument;
+import com.shockwave.pdfium.PdfiumCore;
+import com.shockwave.pdfium.RenderWorkerPool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders several documents at once on {@link RenderWorkerPool}s of 1 to N threads,
+ * N being the core count, as views shown side by side do: each page is rendered, then
+ * composited onto a frame the way a view posts it.
+ * <p/>
+ * pdfium calls are serialized by the library lock, so only the compositing can overlap the
+ * renders: the speedup over one thread is bounded by (render + composite) / render.
+ * Time in pdfium, time compositing and the speedup against that bound are logged under the
+ * tag of this class:
+ * <pre>adb logcat -s MultiDocumentRenderBenchmark</pre>
+ * Pages mix strokes and Helvetica text, so the renders share the font caches of pdfium.
+ * Run on a device, not an emulator with a single vCPU.
+ */
+public class MultiDocumentRenderBenchmark extends AndroidTestCase {
+    private static final String TAG = "MultiDocumentRenderBenchmark";
+
+    private static final int PAGES_PER_DOCUMENT = 6;
+    private static final int TEXT_LINES_PER_PAGE = 70;
+    private static final int BITMAP_WIDTH = 720;
+    private static final int BITMAP_HEIGHT = 1018;
+    /** Frames are composited at this scale of the rendered page, as a zoomed view draws */
+    private static final float COMPOSITE_SCALE = 1.5f;
+
+    private PdfiumCore mCore;
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCore = new PdfiumCore(getContext());
+        mFile = SyntheticPdf.write(new File(getContext().getCacheDir(), "multi-document-benchmark.pdf"),
+                PAGES_PER_DOCUMENT, SyntheticPdf.Content.TEXT, TEXT_LINES_PER_PAGE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testScalingWithThreadCount() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int documents = Math.max(2, cores);
+
+        //Warm up fonts and the JIT
+        renderDocuments(1, 1);
+
+        Timings serial = null;
+        for(int threads = 1; threads <= cores; threads *= 2){
+            Timings timings = renderDocuments(documents, threads);
+            if(threads == 1) serial = timings;
+            log(documents, threads, cores, timings, serial);
+        }
+        if(Integer.bitCount(cores) != 1){
+            log(documents, cores, cores, renderDocuments(documents, cores), serial);
+        }
+    }
+
+    private static void log(int documents, int threads, int cores, Timings timings, Timings serial){
+        float bound = serial.renderMillis > 0
+                ? (serial.renderMillis + serial.compositeMillis) / (float)serial.renderMillis : 1;
+        Log.i(TAG, String.format("%d documents, %d/%d threads: %d ms (pdfium %d ms, composite %d ms),"
+                        + " speedup %.2f of at most %.2f",
+                documents, threads, cores, timings.wallMillis, timings.renderMillis,
+                timings.compositeMillis, serial.wallMillis / (float)timings.wallMillis, bound));
+    }
+
+    private static final class Timings {
+        long wallMillis;
+        /** Summed over the threads, render calls waiting for the library lock included */
+        long renderMillis;
+        long compositeMillis;
+    }
+
+    /** Render then composite every page of each document, one serial queue per document */
+    private Timings renderDocuments(int documentCount, int threadCount) throws Exception {
+        final RenderWorkerPool pool = new RenderWorkerPool(threadCount);
+        final PdfDocument[] docs = new PdfDocument[documentCount];
+        final FileInputStream[] streams = new FileInputStream[documentCount];
+        final Bitmap[] bitmaps = new Bitmap[documentCount];
+        final Bitmap[] frames = new Bitmap[documentCount];
+        final CountDownLatch done = new CountDownLatch(documentCount * PAGES_PER_DOCUMENT);
+        final AtomicLong renderNanos = new AtomicLong();
+        final AtomicLong compositeNanos = new AtomicLong();
+        final Rect frameRect = new Rect(0, 0, Math.round(BITMAP_WIDTH * COMPOSITE_SCALE),
+                Math.round(BITMAP_HEIGHT * COMPOSITE_SCALE));
+        try{
+            for(int i = 0; i < documentCount; i++){
+                streams[i] = new FileInputStream(mFile);
+                docs[i] = mCore.newDocument(streams[i].getFD());
+                bitmaps[i] = Bitmap.createBitmap(BITMAP_WIDTH, BITMAP_HEIGHT, Bitmap.Config.ARGB_8888);
+                frames[i] = Bitmap.createBitmap(frameRect.width(), frameRect.height(), Bitmap.Config.ARGB_8888);
+            }
+
+            long start = SystemClock.elapsedRealtime();
+            for(int i = 0; i < documentCount; i++){
+                Executor queue = pool.newSerialQueue();
+                final PdfDocument doc = docs[i];
+                final Bitmap bitmap = bitmaps[i];
+                final Canvas frame = new Canvas(frames[i]);
+                final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+                for(int page = 0; page < PAGES_PER_DOCUMENT; page++){
+                    final int pageIndex = page;
+                    queue.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            long renderStart = System.nanoTime();
+                            mCore.renderPageBitmap(doc, bitmap, pageIndex,
+                                    0, 0, BITMAP_WIDTH, BITMAP_HEIGHT);
+                            long compositeStart = System.nanoTime();
+                            frame.drawColor(0xFF848484);
+                            frame.drawBitmap(bitmap, null, frameRect, paint);
+                            long end = System.nanoTime();
+                            renderNanos.addAndGet(compositeStart - renderStart);
+                            compositeNanos.addAndGet(end - compositeStart);
+                            done.countDown();
+                        }
+                    });
+                }
+            }
+            done.await();
+            Timings timings = new Timings();
+            timings.wallMillis = SystemClock.elapsedRealtime() - start;
+            timings.renderMillis = renderNanos.get() / 1000000;
+            timings.compositeMillis = compositeNanos.get() / 1000000;
+            return timings;
+        }finally{
+            pool.shutdown();
+            for(int i = 0; i < documentCount; i++){
+                if(docs[i] != null) mCore.closeDocument(docs[i]);
+                if(bitmaps[i] != null) bitmaps[i].recycle();
+                if(frames[i] != null) frames[i].recycle();
+                closeQuietly(streams[i]);
+            }
+        }
+    }
+
+    private static void closeQuietly(FileInputStream stream){
+        if(stream == null) return;
+        try{
+            stream.close();
+        }catch(IOException e){
+            Log.w(TAG, e);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.shockwave.pdfium.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * Writes PDFs with a known amount of content per page, so benchmarks don't depend
+ * on documents that can't be shipped. Pages are A4, each with a title, and differ only by
+ * their page number. The bulk of a page is one kind of {@link Content}.
+ */
+public class SyntheticPdf {
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+    public enum Content {
+        /** A grid of line strokes; amount is the number of strokes */
+        VECTOR,
+        /** Lines of small Helvetica text; amount is the number of lines */
+        TEXT,
+        /** An RGB image, Flate compressed, over the page; amount is its edge in pixels */
+        IMAGE
+    }
+
+    private static final String[] WORDS = {
+            "the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "render", "page",
+            "document", "stream", "object", "font", "glyph", "vector", "raster", "tile"
+    };
+
+    private static final int PAGE_WIDTH = 595;
+    private static final int PAGE_HEIGHT = 842;
+
+    private final OutputStream mOut;
+    private final Content mContent;
+    private long mOffset = 0;
+
+    private SyntheticPdf(OutputStream out, Content content){
+        mOut = out;
+        mContent = content;
+    }
+
+    /**
+     * @param strokesPerPage line segments drawn on each page, the render cost knob
+     */
+    public static File write(File file, int pageCount, int strokesPerPage) throws IOException {
+        return write(file, pageCount, Content.VECTOR, strokesPerPage);
+    }
+
+    /**
+     * @param amount of content on each page, see {@link Content}
+     */
+    public static File write(File file, int pageCount, Content content, int amount) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try{
+            new SyntheticPdf(out, content).writeDocument(pageCount, amount);
+        }finally{
+            out.close();
+        }
+        return file;
+    }
+
+    private int objectsPerPage(){
+        return mContent == Content.IMAGE ? 3 : 2;
+    }
+
+    private void writeDocument(int pageCount, int amount) throws IOException {
+        //Objects: 1 catalog, 2 pages, 3 font, then per page: the page, its content stream
+        //and its image if any
+        int objectCount = 3 + pageCount * objectsPerPage();
+        long[] offsets = new long[objectCount + 1];
+
+        print("%PDF-1.4\n");
+
+        offsets[1] = mOffset;
+        print("1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+
+        offsets[2] = mOffset;
+        StringBuilder kids = new StringBuilder();
+        for(int i = 0; i < pageCount; i++){
+            kids.append(pageObject(i)).append(" 0 R ");
+        }
+        print("2 0 obj\n<< /Type /Pages /Count " + pageCount + " /Kids [" + kids + "] >>\nendobj\n");
+
+        offsets[3] = mOffset;
+        print("3 0 obj\n<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica >>\nendobj\n");
+
+        for(int i = 0; i < pageCount; i++){
+            int page = pageObject(i);
+            offsets[page] = mOffset;
+            String images = mContent == Content.IMAGE ? " /XObject << /Im1 " + (page + 2) + " 0 R >>" : "";
+            print(page + " 0 obj\n<< /Type /Page /Parent 2 0 R /MediaBox [0 0 " + PAGE_WIDTH + " " + PAGE_HEIGHT
+                    + "] /Resources << /Font << /F1 3 0 R >>" + images + " >> /Contents " + (page + 1)
+                    + " 0 R >>\nendobj\n");
+
+            byte[] content = pageContent(i, amount).getBytes(LATIN_1);
+            offsets[page + 1] = mOffset;
+            print((page + 1) + " 0 obj\n<< /Length " + content.length + " >>\nstream\n");
+            write(content);
+            print("\nendstream\nendobj\n");
+
+            if(mContent == Content.IMAGE){
+                byte[] image = imageData(i, amount);
+                offsets[page + 2] = mOffset;
+                print((page + 2) + " 0 obj\n<< /Type /XObject /Subtype /Image /Width " + amount
+                        + " /Height " + amount + " /ColorSpace /DeviceRGB /BitsPerComponent 8"
+                        + " /Filter /FlateDecode /Length " + image.length + " >>\nstream\n");
+                write(image);
+                print("\nendstream\nendobj\n");
+            }
+        }
+
+        long xref = mOffset;
+        print("xref\n0 " + (objectCount + 1) + "\n0000000000 65535 f \n");
+        for(int i = 1; i <= objectCount; i++){
+            print(String.format(Locale.US, "%010d 00000 n \n", offsets[i]));
+        }
+        print("trailer\n<< /Size " + (objectCount + 1) + " /Root 1 0 R >>\nstartxref\n" + xref + "\n%%EOF\n");
+    }
+
+    private int pageObject(int pageIndex){
+        return 4 + pageIndex * objectsPerPage();
+    }
+
+    private String pageContent(int pageIndex, int amount){
+        StringBuilder sb = new StringBuilder();
+        switch(mContent){
+            case TEXT:
+                appendText(sb, pageIndex, amount);
+                break;
+            case IMAGE:
+                sb.append(String.format(Locale.US, "q %d 0 0 %d 20 20 cm /Im1 Do Q\n",
+                        PAGE_WIDTH - 40, PAGE_HEIGHT - 140));
+                break;
+            default:
+                appendStrokes(sb, pageIndex, amount);
+                break;
+        }
+        sb.append("BT /F1 24 Tf 20 ").append(PAGE_HEIGHT - 60).append(" Td (Page ")
+                .append(pageIndex + 1).append(") Tj ET\n");
+        sb.append("BT /F1 10 Tf 20 ").append(PAGE_HEIGHT - 90)
+                .append(" Td (The quick brown fox jumps over the lazy dog.) Tj ET\n");
+        return sb.toString();
+    }
+
+    private static void appendText(StringBuilder sb, int pageIndex, int lines){
+        float leading = (PAGE_HEIGHT - 140) / (float)Math.max(1, lines);
+        sb.append(String.format(Locale.US, "BT /F1 %.1f Tf %.1f TL 20 %d Td\n",
+                Math.min(12, leading * 0.8f), leading, PAGE_HEIGHT - 120));
+        for(int line = 0; line < lines; line++){
+            sb.append('(');
+            for(int word = 0; word < 14; word++){
+                if(word > 0) sb.append(' ');
+                sb.append(WORDS[(pageIndex * 7 + line * 3 + word * word) % WORDS.length]);
+            }
+            sb.append(") '\n");
+        }
+        sb.append("ET\n");
+    }
+
+    /** A pattern that compresses, so the file stays small, yet has to be inflated and scaled */
+    private static byte[] imageData(int pageIndex, int edge){
+        byte[] pixels = new byte[edge * edge * 3];
+        int i = 0;
+        for(int y = 0; y < edge; y++){
+            for(int x = 0; x < edge; x++){
+                pixels[i++] = (byte)((((x >> 3) ^ (y >> 3)) << 3) + pageIndex);
+                pixels[i++] = (byte)(x * 255 / edge);
+                pixels[i++] = (byte)(y * 255 / edge);
+            }
+        }
+        Deflater deflater = new Deflater();
+        deflater.setInput(pixels);
+        deflater.finish();
+        byte[] buffer = new byte[64 * 1024];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while(!deflater.finished()){
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static void appendStrokes(StringBuilder sb, int pageIndex, int strokes){
+        sb.append("0.5 w 0.2 0.3 0.6 RG\n");
+        int columns = Math.max(1, (int)Math.sqrt(strokes));
+        float cellWidth = (PAGE_WIDTH - 40) / (float)columns;
+        float cellHeight = (PAGE_HEIGHT - 140) / (float)Math.max(1, (strokes + columns - 1) / columns);
+        for(int i = 0; i < strokes; i++){
+            float x = 20 + (i % columns) * cellWidth;
+            float y = 20 + (i / columns) * cellHeight;
+            //Alternate diagonals so strokes don't merge into filled areas
+            if((i + pageIndex) % 2 == 0){
+                sb.append(String.format(Locale.US, "%.1f %.1f m %.1f %.1f l S\n", x, y, x + cellWidth, y + cellHeight));
+            }else{
+                sb.append(String.format(Locale.US, "%.1f %.1f m %.1f %.1f l S\n", x, y + cellHeight, x + cellWidth, y));
+            }
+        }
+    }
+
+    private void print(String s) throws IOException {
+        write(s.getBytes(LATIN_1));
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        mOut.write(bytes);
+        mOffset += bytes.length;
+    }
+}
@@ -0,0 +1,68 @@
+package com.shockwave.pdfium;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+
+/**
+ * Bitmaps evicted from the {@link RenderCache}, kept for the next render of the same size
+ * instead of allocating a new one. They only get here once no frame or preview draws them.
+ * Tiles all have the same size, so panning mostly renders into recycled bitmaps. Reusing
+ * buffers also lets the native side reuse the FPDF_BITMAP handle wrapping them.
+ */
+class BitmapPool {
+
+    private final int mMaxBytes;
+    //Guarded by this
+    private final ArrayList<Bitmap> mBitmaps = new ArrayList<Bitmap>();
+    private int mSizeBytes = 0;
+    private long mHits = 0;
+    private long mMisses = 0;
+
+    BitmapPool(int maxBytes){
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return a pooled ARGB_8888 bitmap of this size, with the content of its previous use,
+     *         or null if there is none
+     */
+    synchronized Bitmap obtain(int width, int height){
+        for(int i = mBitmaps.size() - 1; i >= 0; i--){
+            Bitmap bitmap = mBitmaps.get(i);
+            if(bitmap.getWidth() == width && bitmap.getHeight() == height){
+                mBitmaps.remove(i);
+                mSizeBytes -= sizeOf(bitmap);
+                mHits++;
+                return bitmap;
+            }
+        }
+        mMisses++;
+        return null;
+    }
+
+    /** Keep a bitmap nobody draws anymore, dropping the oldest ones past the budget */
+    synchronized void release(Bitmap bitmap){
+        if(bitmap.isRecycled() || bitmap.getConfig() != Bitmap.Config.ARGB_8888) return;
+        int size = sizeOf(bitmap);
+        if(size > mMaxBytes) return;
+
+        mBitmaps.add(bitmap);
+        mSizeBytes += size;
+        while(mSizeBytes > mMaxBytes){
+            mSizeBytes -= sizeOf(mBitmaps.remove(0));
+        }
+    }
+
+    synchronized void clear(){
+        mBitmaps.clear();
+        mSizeBytes = 0;
+    }
+
+    synchronized long getHits(){ return mHits; }
+    synchronized long getMisses(){ return mMisses; }
+
+    private static int sizeOf(Bitmap bitmap){
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
@@ -0,0 +1,27 @@
+package com.shockwave.pdfium;
+
+/**
+ * Snapshot of the native pool of FPDF_BITMAP handles, see {@link PdfiumCore#getBitmapPoolStats()}.
+ * A hit is a render that reused the handle of its buffer, a miss one that had to create it.
+ */
+public class BitmapPoolStats {
+    public final long hits;
+    public final long misses;
+    /** Handles destroyed to make room for others */
+    public final long evictions;
+    /** Handles currently pooled */
+    public final long pooled;
+
+    BitmapPoolStats(long hits, long misses, long evictions, long pooled){
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.pooled = pooled;
+    }
+
+    @Override
+    public String toString(){
+        return "BitmapPoolStats{hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + ", pooled=" + pooled + "}";
+    }
+}
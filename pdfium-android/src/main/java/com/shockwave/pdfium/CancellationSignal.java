@@ -0,0 +1,18 @@
+package com.shockwave.pdfium;
+
+/**
+ * Lets a newer request abort a progressive render still running on another thread.
+ * Same idea as android.os.CancellationSignal, which needs API 16.
+ * The native renderer polls {@link #isCanceled()} between rendering steps.
+ */
+public class CancellationSignal {
+    private volatile boolean mCanceled = false;
+
+    public void cancel(){
+        mCanceled = true;
+    }
+
+    public boolean isCanceled(){
+        return mCanceled;
+    }
+}
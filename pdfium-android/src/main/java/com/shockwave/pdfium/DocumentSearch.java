@@ -0,0 +1,202 @@
+package com.shockwave.pdfium;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.shockwave.pdfium.listener.OnSearchListener;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static com.shockwave.pdfium.util.Constants.*;
+
+/**
+ * Find in document, for documents of any length.
+ * <p/>
+ * Pages are searched one at a time on a low-priority thread shared by all searches, each
+ * under the document lock for that page only, so rendering goes on between pages. Pages not
+ * open are loaded for their search only: the pages kept open for display stay.
+ * Hits are delivered as they are found, every few pages.
+ * <p/>
+ * With an index enabled, the text of each page searched is indexed, and later searches only
+ * search the pages that may contain the query. Once every page was indexed, the index can be
+ * written to disk, keyed by a hash of the file, so it is there the next time the document
+ * is opened.
+ * <p/>
+ * Call from the UI thread. A search of a document closed meanwhile finds nothing.
+ */
+public class DocumentSearch {
+    private static final String TAG = DocumentSearch.class.getName();
+
+    private static final String CACHE_DIR = "pdfium-search";
+
+    private static final ExecutorService sWorker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, "PdfSearch");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final PdfiumCore mPdfCore;
+    private final PdfDocument mDocument;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    //Search thread only
+    private SearchIndex mIndex = null;
+    private File mIndexFile = null;
+    private boolean isIndexWritten = false;
+
+    private CancellationSignal mCurrentSearch = null;
+
+    public DocumentSearch(PdfiumCore core, PdfDocument document){
+        mPdfCore = core;
+        mDocument = document;
+    }
+
+    /** Index the pages as they are searched, in memory only */
+    public void enableIndex(){
+        sWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(mIndex == null) mIndex = new SearchIndex(mDocument.getPageCount());
+            }
+        });
+    }
+
+    /**
+     * Index the pages as they are searched, and keep the complete index in the cache
+     * directory. An index written for the same file is read back.
+     * @param fd the file the document was opened from, only read to identify it
+     */
+    public void enableIndex(Context context, final FileDescriptor fd){
+        final File dir = new File(context.getCacheDir(), CACHE_DIR);
+        sWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(mIndexFile != null) return;
+                String key = ThumbnailLoader.hashFile(fd);
+                if(key != null) mIndexFile = new File(dir, key + ".idx");
+                if(mIndexFile != null && mIndexFile.exists()){
+                    try{
+                        SearchIndex index = SearchIndex.read(mIndexFile, mDocument.getPageCount());
+                        if(index != null){
+                            mIndex = index;
+                            isIndexWritten = true;
+                            return;
+                        }
+                    }catch(IOException e){
+                        Log.w(TAG, "Reading search index failed", e);
+                    }
+                }
+                if(mIndex == null) mIndex = new SearchIndex(mDocument.getPageCount());
+            }
+        });
+    }
+
+    /**
+     * Search the whole document in the background, cancelling the previous search.
+     * @param flags {@link PdfiumCore#SEARCH_MATCH_CASE}, {@link PdfiumCore#SEARCH_WHOLE_WORD}
+     * @return cancel it to stop the search; the listener isn't called afterwards
+     */
+    public CancellationSignal search(final String query, final int flags, final OnSearchListener listener){
+        cancel();
+        final CancellationSignal signal = new CancellationSignal();
+        mCurrentSearch = signal;
+        sWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                searchInBackground(query, flags, listener, signal);
+            }
+        });
+        return signal;
+    }
+
+    /** Stop the current search, if any */
+    public void cancel(){
+        if(mCurrentSearch != null){
+            mCurrentSearch.cancel();
+            mCurrentSearch = null;
+        }
+    }
+
+    private void searchInBackground(String query, int flags, final OnSearchListener listener,
+                                    final CancellationSignal signal){
+        int pageCount = mDocument.getPageCount();
+        SearchIndex index = mIndex;
+        if(index != null && index.getPageCount() != pageCount) index = null;
+        BitSet candidates = index != null ? index.candidatePages(query) : null;
+
+        List<SearchHit> hits = new ArrayList<SearchHit>();
+        String[] text = new String[1];
+        int hitCount = 0;
+        int pagesSincePost = 0;
+        for(int i = 0; i < pageCount; i++){
+            if(signal.isCanceled()) return;
+            if(candidates != null && !candidates.get(i)) continue;
+
+            boolean indexPage = index != null && !index.isIndexed(i);
+            int before = hits.size();
+            if(mPdfCore.searchPageTransient(mDocument, i, query, flags, hits,
+                                            indexPage ? text : null)){
+                if(indexPage) index.addPage(i, text[0]);
+            }
+            hitCount += hits.size() - before;
+
+            if(++pagesSincePost >= SEARCH_BATCH_PAGES && !hits.isEmpty()){
+                postHits(listener, hits, signal);
+                hits = new ArrayList<SearchHit>();
+                pagesSincePost = 0;
+            }
+        }
+        if(!hits.isEmpty()) postHits(listener, hits, signal);
+
+        final int total = hitCount;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if(!signal.isCanceled()) listener.searchComplete(total);
+            }
+        });
+        if(index != null) writeIndexIfComplete(index);
+    }
+
+    private void postHits(final OnSearchListener listener, final List<SearchHit> hits,
+                          final CancellationSignal signal){
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if(!signal.isCanceled()) listener.searchHits(hits);
+            }
+        });
+    }
+
+    private void writeIndexIfComplete(SearchIndex index){
+        if(mIndexFile == null || isIndexWritten || !index.isComplete()) return;
+        File dir = mIndexFile.getParentFile();
+        if(!dir.isDirectory() && !dir.mkdirs()) return;
+        try{
+            index.write(mIndexFile);
+            isIndexWritten = true;
+        }catch(IOException e){
+            Log.w(TAG, "Writing search index failed", e);
+        }
+    }
+}
@@ -77,7 +77,7 @@ class DragPinchManager implements OnDragListener, OnPinchListener, OnDoubleTapLi
     @Override
     public void endDrag(float x, float y) {
         if (DEBUG_MODE) Log.d("DragPinchManager", "End Drag");
-        if (!isZoomed()) {
+        if (!isZoomed() && !pdfView.isContinuousScroll()) {
             if (DEBUG_MODE) Log.d("DragPinchManager","Changing page by flicking...");
             float distance;
             distance = x - startDragX;
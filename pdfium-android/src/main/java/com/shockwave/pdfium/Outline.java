@@ -0,0 +1,35 @@
+package com.shockwave.pdfium;
+
+/**
+ * One level of the outline (bookmarks) of a document: the top level, or the children of an
+ * entry. Entries are indexed, not objects, so a long level costs a few arrays.
+ * Children are read from the document the first time they are asked for, see
+ * {@link PdfiumCore#getOutlineChildren(PdfDocument, Outline, int)}, and kept here.
+ */
+public class Outline {
+    /*package*/ static final Outline EMPTY = new Outline(new long[0], new int[0], new boolean[0], new String[0]);
+
+    /** Native bookmark handles, valid while the document is open */
+    /*package*/ final long[] mBookmarkPtrs;
+    private final int[] mPageIndices;
+    private final boolean[] mHasChildren;
+    private final String[] mTitles;
+    /** Guarded by the document Lock */
+    /*package*/ Outline[] mChildren = null;
+
+    /*package*/ Outline(long[] bookmarkPtrs, int[] pageIndices, boolean[] hasChildren, String[] titles){
+        mBookmarkPtrs = bookmarkPtrs;
+        mPageIndices = pageIndices;
+        mHasChildren = hasChildren;
+        mTitles = titles;
+    }
+
+    public int size(){ return mTitles.length; }
+
+    public String getTitle(int index){ return mTitles[index]; }
+
+    /** @return the page the entry leads to, -1 if it leads out of the document or nowhere */
+    public int getPageIndex(int index){ return mPageIndices[index]; }
+
+    public boolean hasChildren(int index){ return mHasChildren[index]; }
+}
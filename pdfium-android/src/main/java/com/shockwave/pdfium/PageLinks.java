@@ -0,0 +1,39 @@
+package com.shockwave.pdfium;
+
+/**
+ * Link annotations of a page, see {@link PdfiumCore#getPageLinks(PdfDocument, int)}.
+ * Links are indexed in the arrays, in the order of the page.
+ */
+public class PageLinks {
+    /*package*/ static final PageLinks EMPTY = new PageLinks(new float[0], new int[0], new String[0]);
+
+    /**
+     * Left, top, right, bottom of each link, in page points with the origin at the bottom
+     * left (top > bottom)
+     */
+    public final float[] rects;
+    /** Page each link leads to, -1 for links out of the document */
+    public final int[] pageIndices;
+    /** URI of each link to one, null for the others */
+    public final String[] uris;
+
+    PageLinks(float[] rects, int[] pageIndices, String[] uris){
+        this.rects = rects;
+        this.pageIndices = pageIndices;
+        this.uris = uris;
+    }
+
+    public int size(){ return pageIndices.length; }
+
+    /**
+     * @param x in page points, origin at the bottom left
+     * @return index of the last link containing the point, the one drawn on top; -1 if none
+     */
+    public int linkAt(float x, float y){
+        for(int i = pageIndices.length - 1; i >= 0; i--){
+            if(x >= rects[4 * i] && y <= rects[4 * i + 1]
+                    && x <= rects[4 * i + 2] && y >= rects[4 * i + 3]) return i;
+        }
+        return -1;
+    }
+}
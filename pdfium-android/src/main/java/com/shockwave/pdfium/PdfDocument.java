@@ -1,8 +1,8 @@
 package com.shockwave.pdfium;
 
-import android.support.v4.util.ArrayMap;
+import com.shockwave.pdfium.util.PageHandleTable;
 
-import java.util.Map;
+import static com.shockwave.pdfium.util.Constants.*;
 
 public class PdfDocument {
     public final Object Lock = new Object();
@@ -11,6 +11,65 @@ public class PdfDocument {
 
     /*package*/ long mNativeDocPtr;
 
-    /*package*/ final Map<Integer, Long> mNativePagesPtr = new ArrayMap<>();
-    public boolean hasPage(int index){ return mNativePagesPtr.containsKey(index); }
+    /** Loaded pages with their LRU stamps and pin counts */
+    /*package*/ final PageHandleTable mNativePagesPtr = new PageHandleTable(0);
+    /*package*/ int mPageCapacity = DEFAULT_PAGE_CAPACITY;
+    /** Text pages (FPDF_TEXTPAGE) of open pages, closed with their page */
+    /*package*/ final PageHandleTable mNativeTextPagesPtr = new PageHandleTable(0);
+
+    //Navigation, read on first use and kept until the document is closed, guarded by Lock
+    /*package*/ Outline mOutline = null;
+    /** Indexed by page, null for pages not read yet */
+    /*package*/ PageLinks[] mPageLinks = new PageLinks[0];
+
+    /**
+     * Width and height in points of every page, filled once when the document is opened.
+     * Replaced, never modified, as pages of a growing file arrive.
+     */
+    /*package*/ volatile float[] mPageSizes = new float[0];
+
+    //Growing files only, guarded by Lock
+    /*package*/ boolean isGrowing = false;
+    /*package*/ boolean isLoaded = true;
+    /** Pages whose data arrived, null once they all did */
+    /*package*/ boolean[] mAvailablePages = null;
+    /*package*/ float[] mAvailableSizes = null;
+    /*package*/ int mAvailablePageCount = 0;
+
+    public boolean hasPage(int index){ return mNativePagesPtr.contains(index); }
+
+    /**
+     * @return false while the start of a growing file hasn't arrived:
+     *         the page count is then 0
+     */
+    public boolean isLoaded(){
+        synchronized (Lock){ return isLoaded; }
+    }
+
+    /** @return true unless the document is a growing file missing some pages */
+    public boolean isComplete(){
+        synchronized (Lock){ return isLoaded && mAvailablePages == null; }
+    }
+
+    /**
+     * Pages of a growing file can only be rendered once their data arrived. Until then, their
+     * size is a guess, see {@link PdfiumCore#updateAvailability(PdfDocument)}.
+     */
+    public boolean isPageAvailable(int index){
+        synchronized (Lock){
+            if(index < 0 || index >= getPageCount()) return false;
+            return mAvailablePages == null || mAvailablePages[index];
+        }
+    }
+
+    public int getPageCount(){ return mPageSizes.length / 2; }
+
+    public float getPageWidthPoint(int index){
+        return (index >= 0 && index < getPageCount()) ? mPageSizes[2 * index] : 0;
+    }
+    public float getPageHeightPoint(int index){
+        return (index >= 0 && index < getPageCount()) ? mPageSizes[2 * index + 1] : 0;
+    }
+
+    public int getPageCapacity(){ return mPageCapacity; }
 }
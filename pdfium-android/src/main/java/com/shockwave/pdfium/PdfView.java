@@ -2,11 +2,12 @@ package com.shockwave.pdfium;
 
 import android.app.ProgressDialog;
 import android.content.Context;
-import android.graphics.Matrix;
+import android.graphics.Canvas;
 import android.graphics.PointF;
 import android.graphics.Rect;
-import android.graphics.RectF;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.GestureDetector;
@@ -17,12 +18,18 @@ import android.view.SurfaceView;
 
 import com.shockwave.pdfium.listener.OnErrorOccurredListener;
 import com.shockwave.pdfium.listener.OnLoadCompleteListener;
+import com.shockwave.pdfium.listener.OnLoadProgressListener;
 import com.shockwave.pdfium.listener.OnPageChangedListener;
+import com.shockwave.pdfium.listener.OnRenderTimeListener;
+import com.shockwave.pdfium.util.PageLayout;
+import com.shockwave.pdfium.util.PageTransform;
 
-import java.io.FileInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static com.shockwave.pdfium.util.Constants.*;
 
@@ -33,61 +40,106 @@ public class PdfView extends SurfaceView {
 
     private PdfiumCore mPdfCore;
 
-    private PdfDocument mPdfDoc = null;
-    private FileInputStream mDocFileStream = null;
+    /** Set on the UI thread, read by the render worker too */
+    private volatile PdfDocument mPdfDoc = null;
+    /** File the document streams from, null if it was read into memory */
+    private ParcelFileDescriptor mDocFile = null;
+    /** Document being opened in the background, null once shown */
+    private LoadTask mLoadTask = null;
 
     private DragPinchManager dragPinchManager;
 
     private int mCurrentPageIndex = 0;
     private int mPageCount = 0;
 
-    private float zoom = MINIMUM_ZOOM;
-
 
     private SurfaceHolder mPdfSurfaceHolder;
     private boolean isSurfaceCreated = false;
-
+    /**
+     * Held by the render worker while it composites a frame onto the surface. The UI thread
+     * only draws a preview when it can take it without waiting.
+     */
+    private final ReentrantLock mSurfaceLock = new ReentrantLock();
+
+    /** Zoom, page position and scroll position, mPageRect mirrors its page rectangle */
+    private final PageTransform mTransform = new PageTransform();
     private final Rect mPageRect = new Rect();
     private final Rect mScreenRect = new Rect();
-    private final Matrix mTransformMatrix = new Matrix();
-    private boolean isZoomed = false;
-
-
-    private final ExecutorService mPreLoadPageWorker = Executors.newSingleThreadExecutor();
-    private final ExecutorService mRenderPageWorker = Executors.newSingleThreadExecutor();
 
-    private Runnable mRenderRunnable;
+    /** Replaced on the render worker only, between frames; read by the UI thread too */
+    private volatile RenderCache mRenderCache;
+    private TileRenderer mTileRenderer;
+    private int mPageFitWidth = 0;
+    private int mPageFitHeight = 0;
+
+
+    //Pool shared by all views, documents are opened on it directly
+    private final RenderWorkerPool mWorkerPool;
+    //Serial queues on that pool
+    private final Executor mPreLoadPageWorker;
+    private final Executor mRenderPageWorker;
+
+    private final RenderScheduler mRenderScheduler;
+    /** Scratch state handed to the scheduler, which copies it */
+    private final RenderScheduler.RenderState mRequestState = new RenderScheduler.RenderState();
+    //Only touched by the render worker, reset there when the document changes
+    /** Document the pinned and preloaded pages below belong to */
+    private PdfDocument mFrameDoc = null;
+    /** Page kept open in mFrameDoc for the frames, -1 if none */
+    private int mPinnedPageIndex = -1;
+    /** Page whose neighbours were last preloaded */
+    private int mPreloadedPageIndex = -1;
+    /** Page shown by the last frame posted by the render worker */
+    private volatile int mPresentedPageIndex = -1;
+    /** The last frame missed some of its content and another one was requested, render worker only */
+    private boolean isFrameRetried = false;
+    /** Show a low resolution pass before rendering a page that isn't cached */
+    private volatile boolean isTwoPassRender = true;
+    //Page positions, used by the render worker and the UI thread respectively
+    private final Rect mFramePageRect = new Rect();
+    private final Rect mPreviewPageRect = new Rect();
+
+    /** Pages stacked vertically and scrolled, instead of one page at a time */
+    private boolean isContinuousScroll = false;
+    private PageLayout mPageLayout = null;
 
     private OnPageChangedListener onPageChangedListener;
     private OnErrorOccurredListener onErrorOccurredListener;
     private OnLoadCompleteListener onLoadCompleteListener;
+    private OnLoadProgressListener onLoadProgressListener;
+    private volatile OnRenderTimeListener onRenderTimeListener;
 
 
     public PdfView(final Context c,AttributeSet set) {
         super(c,set);
         mPdfCore = new PdfiumCore(c);
+        mRenderCache = new RenderCache(RenderCache.defaultMaxBytes());
+        mTileRenderer = new TileRenderer(mPdfCore, mRenderCache);
 
         dragPinchManager = new DragPinchManager(this);
 
-        mRenderRunnable = new Runnable() {
+        mWorkerPool = RenderWorkerPool.getDefault();
+        mPreLoadPageWorker = mWorkerPool.newSerialQueue();
+        mRenderPageWorker = mWorkerPool.newSerialQueue();
+
+        mRenderScheduler = new RenderScheduler(mRenderPageWorker, new RenderScheduler.Renderer() {
             @Override
-            public void run() {
-                loadPageIfNeed(mCurrentPageIndex);
-                resetPageFit();
-                mPreLoadPageWorker.submit(new Runnable() {
-                    @Override
-                    public void run() {
-                        loadPageIfNeed(mCurrentPageIndex + 1);
-                        loadPageIfNeed(mCurrentPageIndex - 1);
-                        loadPageIfNeed(mCurrentPageIndex + 2);
-                        loadPageIfNeed(mCurrentPageIndex - 2);
+            public boolean renderFrame(RenderScheduler.RenderState state, CancellationSignal signal) {
+                try {
+                    return PdfView.this.renderFrame(state, signal);
+                } finally {
+                    //Posted or cancelled, its bitmaps aren't drawn anymore
+                    mTileRenderer.endFrame();
+                    //Nor are the evicted ones by a preview, which runs under the surface lock
+                    mSurfaceLock.lock();
+                    try {
+                        mRenderCache.releaseEvicted();
+                    } finally {
+                        mSurfaceLock.unlock();
                     }
-                });
-                if (onPageChangedListener !=null) {
-                    onPageChangedListener.pageChanged(getCurrentPage(), mPageCount);
                 }
             }
-        };
+        });
 
         this.getHolder().addCallback(new SurfaceHolder.Callback() {
             @Override
@@ -95,7 +147,7 @@ public class PdfView extends SurfaceView {
                 isSurfaceCreated = true;
                 updateSurface(holder);
                 if (mPdfDoc != null) {
-                    mRenderPageWorker.submit(mRenderRunnable);
+                    resetPageFit();
                 }
             }
 
@@ -104,7 +156,7 @@ public class PdfView extends SurfaceView {
                 Log.w(TAG, "Surface Changed");
                 updateSurface(holder);
                 if(mPdfDoc != null){
-                    mRenderPageWorker.submit(mRenderRunnable);
+                    resetPageFit();
                 }
             }
 
@@ -117,40 +169,383 @@ public class PdfView extends SurfaceView {
         });
     }
 
-    private void loadDocument(Uri fileUri) {
-        try{
-            mDocFileStream = new FileInputStream(fileUri.getPath());
+    /**
+     * Open the document on the worker pool. It is shown, and the listeners called,
+     * on the UI thread once open. A load in progress is cancelled.
+     * @param growingFileSize final size of the file if it is still being written, 0 otherwise
+     */
+    private LoadTask loadDocument(Uri fileUri, long growingFileSize) {
+        if (mLoadTask != null) mLoadTask.cancel();
+        mLoadTask = new LoadTask(fileUri, growingFileSize);
+        mWorkerPool.execute(mLoadTask);
+        return mLoadTask;
+    }
+
+    /** Take over a document opened by the current load task. UI thread. */
+    private void onDocumentLoaded(PdfDocument doc, ParcelFileDescriptor file) {
+        mPdfDoc = doc;
+        mDocFile = file;
+        if (DEBUG_MODE) Log.d("Main", "Open Document");
+
+        if (!doc.isComplete()) {
+            postDelayed(mAvailabilityCheck, GROWING_FILE_POLL_MILLIS);
+            //Load completes once the start of the file arrived
+            if (!doc.isLoaded()) {
+                mPageCount = 0;
+                return;
+            }
+        }
+        mPageCount = mPdfCore.getPageCount(doc);
+        if (DEBUG_MODE) Log.d(TAG, "Page Count: " + mPageCount);
+        if (onLoadCompleteListener != null) {
+            onLoadCompleteListener.loadComplete(mPageCount);
+        }
+        if (isSurfaceCreated) resetPageFit();
+    }
+
+    /**
+     * A document being opened in the background, returned by {@link Configurator#load()}.
+     * <p/>
+     * Cancelling makes pdfium stop parsing at its next read of the file, so a cancelled
+     * load doesn't hold a worker for long, even on a large file.
+     */
+    public class LoadTask implements Runnable {
+        private final Uri mUri;
+        private final long mGrowingFileSize;
+        private final CancellationSignal mSignal = new CancellationSignal();
+        //UI thread only
+        private boolean isDone = false;
+
+        private LoadTask(Uri uri, long growingFileSize) {
+            mUri = uri;
+            mGrowingFileSize = growingFileSize;
+        }
+
+        /** Stop opening the document; no listener is called afterwards. UI thread. */
+        public void cancel() {
+            mSignal.cancel();
+        }
+
+        public boolean isCancelled() {
+            return mSignal.isCanceled();
+        }
+
+        /** @return true once the document is shown or failed to open. UI thread. */
+        public boolean isDone() {
+            return isDone;
+        }
+
+        @Override
+        public void run() {
+            ParcelFileDescriptor file = null;
+            PdfDocument doc = null;
+            try {
+                if (isCancelled()) return;
+                postProgress(OnLoadProgressListener.STEP_OPEN_FILE);
+                file = openFile();
+                if (isCancelled()) return;
+                postProgress(OnLoadProgressListener.STEP_READ_DOCUMENT);
+                doc = file != null ? openDocument(file) : openStream();
+                if (doc.mNativeDocPtr == -1) {
+                    doc = null;
+                    if (!isCancelled()) postError();
+                    return;
+                }
+                if (isCancelled()) return;
+                postLoaded(doc, file);
+                //Owned by the view from now on
+                doc = null;
+                file = null;
+            } catch (IOException e) {
+                if (isCancelled()) return;
+                Log.e(TAG, "Opening " + mUri + " failed", e);
+                postError();
+            } finally {
+                if (doc != null) mPdfCore.closeDocument(doc);
+                if (file != null) closeFile(file);
+            }
+        }
+
+        /**
+         * File descriptor for plain paths, file:// and most content:// URIs
+         * (e.g. from ACTION_GET_CONTENT), the document is then streamed from it.
+         * @return null for providers serving streams only
+         */
+        private ParcelFileDescriptor openFile() throws IOException {
+            String scheme = mUri.getScheme();
+            if (scheme == null) {
+                return ParcelFileDescriptor.open(new File(mUri.getPath()),
+                        ParcelFileDescriptor.MODE_READ_ONLY);
+            }
+            try {
+                return getContext().getContentResolver().openFileDescriptor(mUri, "r");
+            } catch (FileNotFoundException e) {
+                if (!"content".equals(scheme) || mGrowingFileSize > 0) throw e;
+                return null;
+            }
+        }
+
+        private PdfDocument openDocument(ParcelFileDescriptor file) {
+            return mGrowingFileSize > 0
+                    ? mPdfCore.newGrowingDocument(file.getFileDescriptor(), mGrowingFileSize)
+                    : mPdfCore.newDocument(file, mSignal);
+        }
+
+        /** The whole stream is read into memory */
+        private PdfDocument openStream() throws IOException {
+            InputStream in = getContext().getContentResolver().openInputStream(mUri);
+            if (in == null) throw new FileNotFoundException(mUri.toString());
+            try {
+                return mPdfCore.newDocument(in, mSignal);
+            } finally {
+                in.close();
+            }
+        }
+
+        /** Run on the UI thread unless this load was cancelled or replaced meanwhile */
+        private void postIfCurrent(final Runnable action) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isCancelled() && mLoadTask == LoadTask.this) action.run();
+                }
+            });
+        }
+
+        private void postProgress(final int step) {
+            postIfCurrent(new Runnable() {
+                @Override
+                public void run() {
+                    if (onLoadProgressListener != null) {
+                        onLoadProgressListener.loadProgress(step, OnLoadProgressListener.STEP_COUNT);
+                    }
+                }
+            });
+        }
+
+        private void postError() {
+            postIfCurrent(new Runnable() {
+                @Override
+                public void run() {
+                    isDone = true;
+                    mLoadTask = null;
+                    if (DEBUG_MODE) Log.e("Main", "Data uri: " + mUri.toString());
+                    if (onErrorOccurredListener != null) {
+                        onErrorOccurredListener.errorOccured();
+                    }
+                }
+            });
+        }
+
+        private void postLoaded(final PdfDocument doc, final ParcelFileDescriptor file) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    if (isCancelled() || mLoadTask != LoadTask.this) {
+                        mPdfCore.closeDocument(doc);
+                        if (file != null) closeFile(file);
+                        return;
+                    }
+                    isDone = true;
+                    mLoadTask = null;
+                    onDocumentLoaded(doc, file);
+                }
+            });
+        }
+    }
 
-            mPdfDoc = mPdfCore.newDocument(mDocFileStream.getFD());
-            if (DEBUG_MODE) Log.d("Main", "Open Document");
+    private static void closeFile(ParcelFileDescriptor file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Closing document file failed", e);
+        }
+    }
 
-            mPageCount = mPdfCore.getPageCount(mPdfDoc);
+    /** Check on the preload worker what arrived of a growing file, until it is complete */
+    private final Runnable mAvailabilityCheck = new Runnable() {
+        @Override
+        public void run() {
+            final PdfDocument doc = mPdfDoc;
+            if (doc == null) return;
+            mPreLoadPageWorker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final boolean changed = mPdfCore.updateAvailability(doc);
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onAvailabilityChecked(doc, changed);
+                        }
+                    });
+                }
+            });
+        }
+    };
+
+    /** Render a frame that missed some of its content once more, from the render worker */
+    private final Runnable mRenderAgain = new Runnable() {
+        @Override
+        public void run() {
+            render();
+        }
+    };
+
+    private void onAvailabilityChecked(PdfDocument doc, boolean changed) {
+        //Closed or replaced meanwhile
+        if (doc != mPdfDoc || doc.mNativeDocPtr == -1) return;
+        if (!doc.isComplete()) postDelayed(mAvailabilityCheck, GROWING_FILE_POLL_MILLIS);
+        if (!changed) return;
+
+        if (mPageCount == 0) {
+            mPageCount = mPdfCore.getPageCount(doc);
             if (DEBUG_MODE) Log.d(TAG, "Page Count: " + mPageCount);
-            if (onLoadCompleteListener!=null) {
+            if (onLoadCompleteListener != null) {
                 onLoadCompleteListener.loadComplete(mPageCount);
             }
-        }catch(IOException e) {
-            e.printStackTrace();
-            if (DEBUG_MODE) Log.e("Main", "Data uri: " + fileUri.toString());
-            if (onErrorOccurredListener != null) {
-                onErrorOccurredListener.errorOccured();
-            }
+            if (isSurfaceCreated) resetPageFit();
+            return;
+        }
+
+        //Pages that arrived get their real size
+        if (isContinuousScroll) {
+            if (mPageLayout == null) return;
+            mPageLayout = new PageLayout(doc.mPageSizes, mPageLayout.getWidth(), CONTINUOUS_PAGE_SPACING);
+            mTransform.clampScroll(mPageLayout);
+            render();
+        } else if (!mTransform.isZoomed() && isSurfaceCreated) {
+            resetPageFit();
+        } else {
+            render();
         }
     }
 
     private void loadPageIfNeed(final int pageIndex){
-        if( pageIndex >= 0 && pageIndex < mPageCount && !mPdfDoc.hasPage(pageIndex) ){
+        //Preload worker: the view may be recycled meanwhile
+        PdfDocument doc = mPdfDoc;
+        if( doc != null && pageIndex >= 0 && pageIndex < mPageCount && !doc.hasPage(pageIndex) ){
             if (DEBUG_MODE) Log.d(TAG, "Load page: " + pageIndex);
-            mPdfCore.openPage(mPdfDoc, pageIndex);
+            mPdfCore.openPage(doc, pageIndex);
         }
     }
 
+    /** Keep the displayed page open while the preload worker opens its neighbours */
+    private void pinPage(PdfDocument doc, int pageIndex){
+        if(doc != mFrameDoc){
+            //The previous document is closed, or about to be: its pages go with it
+            mFrameDoc = doc;
+            mPinnedPageIndex = -1;
+            mPreloadedPageIndex = -1;
+        }
+        if(mPinnedPageIndex == pageIndex) return;
+        if(mPinnedPageIndex >= 0){
+            mPdfCore.unpinPage(doc, mPinnedPageIndex);
+        }
+        mPdfCore.pinPage(doc, pageIndex);
+        mPinnedPageIndex = pageIndex;
+    }
+
+    private void preloadAround(final int pageIndex){
+        if(mPreloadedPageIndex == pageIndex) return;
+        mPreloadedPageIndex = pageIndex;
+        mPreLoadPageWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadPageIfNeed(pageIndex + 1);
+                loadPageIfNeed(pageIndex - 1);
+                loadPageIfNeed(pageIndex + 2);
+                loadPageIfNeed(pageIndex - 2);
+            }
+        });
+    }
+
     private void updateSurface(SurfaceHolder holder){
         mPdfSurfaceHolder = holder;
         mScreenRect.set(holder.getSurfaceFrame());
+        mTransform.setScreenSize(mScreenRect.width(), mScreenRect.height());
     }
 
     protected void resetPageFit(){
+        if(mPageCount == 0) return;
+        if(isContinuousScroll){
+            resetContinuousFit();
+            return;
+        }
+        computePageFit();
+        render();
+    }
+
+    /** Back to zoom 1 at the same place in the document, relaying pages out if the width changed */
+    private void resetContinuousFit(){
+        int width = mScreenRect.width();
+        if(width <= 0) return;
+        float anchor = mTransform.getScrollY() / mTransform.getZoom();
+        if(mPageLayout == null || mPageLayout.getWidth() != width){
+            if(mPageLayout != null){
+                anchor = anchor * width / mPageLayout.getWidth();
+            }
+            mPageLayout = new PageLayout(mPdfDoc.mPageSizes, width, CONTINUOUS_PAGE_SPACING);
+            //Every page got a new fit size, nothing cached will be drawn again
+            mRenderCache.clear();
+        }
+        mTransform.resetZoom();
+        mTransform.setScroll(0, anchor);
+        mTransform.clampScroll(mPageLayout);
+        updateCurrentPage();
+        render();
+    }
+
+    /** The current page is the one at the middle of the screen */
+    private void updateCurrentPage(){
+        int page = mTransform.centerPage(mPageLayout);
+        if(page < 0 || page == mCurrentPageIndex) return;
+        mCurrentPageIndex = page;
+        if (onPageChangedListener != null) {
+            onPageChangedListener.pageChanged(getCurrentPage(), mPageCount);
+        }
+    }
+
+    private void scrollContinuous(float distanceX, float distanceY){
+        if(mPageLayout == null) return;
+        mTransform.scrollBy(mPageLayout, distanceX, distanceY);
+        updateCurrentPage();
+        requestRender(true);
+    }
+
+    private void zoomContinuous(float factor, PointF pivot){
+        if(mPageLayout == null) return;
+        mTransform.zoomScroll(mPageLayout, factor, pivot.x, pivot.y);
+        updateCurrentPage();
+        requestRender(true);
+    }
+
+    public boolean isContinuousScroll() {
+        return isContinuousScroll;
+    }
+
+    /**
+     * @param continuous scroll through pages stacked vertically instead of flicking
+     *                   from page to page. Only the visible pages are rendered.
+     */
+    public void setContinuousScroll(boolean continuous) {
+        if(isContinuousScroll == continuous) return;
+        isContinuousScroll = continuous;
+        mPageLayout = null;
+        //Pages are fit to another size in the other mode
+        mRenderCache.clear();
+        if(mPdfDoc != null && isSurfaceCreated){
+            if(continuous){
+                mTransform.setScroll(mTransform.getScrollX(), 0);
+                mTransform.resetZoom();
+                resetContinuousFit();
+                goToPage(mCurrentPageIndex);
+            }else{
+                resetPageFit();
+            }
+        }
+    }
+
+    private void computePageFit(){
         int pageIndex = mCurrentPageIndex;
         float pageWidth = mPdfCore.getPageWidth(mPdfDoc, pageIndex);
         float pageHeight = mPdfCore.getPageHeight(mPdfDoc, pageIndex);
@@ -202,16 +597,15 @@ public class PdfView extends SurfaceView {
             }
         }
 
-        isZoomed = false;
-        zoom = MINIMUM_ZOOM;
-        render();
+        mPageFitWidth = mPageRect.width();
+        mPageFitHeight = mPageRect.height();
+        mTransform.setPageRect(mPageRect.left, mPageRect.top, mPageRect.right, mPageRect.bottom);
+        mTransform.resetZoom();
     }
 
-    private void rectF2Rect(RectF inRectF, Rect outRect){
-        outRect.left = (int)inRectF.left;
-        outRect.right = (int)inRectF.right;
-        outRect.top = (int)inRectF.top;
-        outRect.bottom = (int)inRectF.bottom;
+    private void syncPageRect(){
+        mPageRect.set(mTransform.getPageLeft(), mTransform.getPageTop(),
+                mTransform.getPageRight(), mTransform.getPageBottom());
     }
 
     @Override
@@ -226,50 +620,27 @@ public class PdfView extends SurfaceView {
     }
 
     public boolean isZoomed() {
-        return isZoomed;
+        return mTransform.isZoomed();
     }
 
     public void zoomTo(float zoom, PointF pivot) {
-        //It allows to work with matrixes.
-        RectF mPageRectF = new RectF();
-        //Check zoom levels
-        if (this.zoom*zoom < MINIMUM_ZOOM) {
+        if (isContinuousScroll) {
+            zoomContinuous(zoom, pivot);
+            return;
+        }
+        if (!mTransform.zoomPage(zoom, pivot.x, pivot.y)) {
             resetPageFit();
-        } else {
-            if (this.zoom*zoom > MAXIMUM_ZOOM) {
-                zoom = MAXIMUM_ZOOM / this.zoom;
-            }
-            this.zoom *= zoom;
-            float focusX = pivot.x;
-            float focusY = pivot.y;
-            mTransformMatrix.setScale(zoom, zoom,
-                    focusX, focusY);
-            mPageRectF.set(mPageRect);
-            mTransformMatrix.mapRect(mPageRectF);
-            if (DEBUG_MODE) Log.d("PdfView", "Zoom: " + this.zoom);
-            rectF2Rect(mPageRectF, mPageRect);
-            isZoomed = true;
-            //Fix movement while zooming
-            float moveX = 0f;
-            float moveY = 0f;
-            if (mPageRect.left > 0) {
-                moveX -= mPageRect.left;
-            }
-            if (mPageRect.top > 0) {
-                moveY -= mPageRect.top;
-            }
-            if (mPageRect.right < mScreenRect.width()) {
-                moveX = mScreenRect.width() - mPageRect.right;
-            }
-            if (mPageRect.bottom < mScreenRect.height()) {
-                moveY = mScreenRect.height() - mPageRect.bottom;
-            }
-            moveRelative(moveX,moveY,false);
+            return;
+        }
+        if (DEBUG_MODE) Log.d("PdfView", "Zoom: " + mTransform.getZoom());
+        syncPageRect();
+        if (isSurfaceCreated) {
+            requestRender(true);
         }
     }
 
     public float getZoom() {
-        return this.zoom;
+        return mTransform.getZoom();
     }
 
     public Rect getPageRect() {
@@ -284,14 +655,11 @@ public class PdfView extends SurfaceView {
         if(!isSurfaceCreated) return;
             if (DEBUG_MODE) Log.d(TAG, "DistanceX: " + distanceX);
             if (DEBUG_MODE) Log.d(TAG, "DistanceY: " + distanceY);
-            int deltaX = mPageRect.width();
-            int deltaY = mPageRect.height();
-            mPageRect.left = (int) (distanceX);
-            mPageRect.right = (mPageRect.left + deltaX);
-            mPageRect.top = (int) (distanceY);
-            mPageRect.bottom = (mPageRect.top + deltaY);
+            mTransform.setPagePosition(distanceX, distanceY);
+            syncPageRect();
             if (render) {
-                render();
+                //Gestures only move the page, the previous frame follows until the new one is ready
+                requestRender(true);
             }
     }
 
@@ -300,48 +668,40 @@ public class PdfView extends SurfaceView {
     }
 
     public void moveRelative(float distanceX, float distanceY,boolean render) {
-        if (isZoomed) {
-            float newLeft = mPageRect.left + distanceX;
-            float newRight = mPageRect.right + distanceX;
-            float newTop = mPageRect.top + distanceY;
-            float newBottom = mPageRect.bottom + distanceY;
-
-            //Don't move more than needed each side.
-            if (distanceX > 0 && newRight >= mScreenRect.right && newLeft >= mScreenRect.left) {
-                distanceX = (mScreenRect.left - mPageRect.left);
-            }
-            if (distanceX < 0 && newLeft <= mScreenRect.left && newRight <= mScreenRect.right) {
-                distanceX = (mScreenRect.right - mPageRect.right);
-            }
-            if (distanceY > 0 && newBottom >= mScreenRect.bottom && newTop >= mScreenRect.top) {
-                distanceY = (mScreenRect.top - mPageRect.top);
-            }
-            if (distanceY < 0 && newTop <= mScreenRect.top && newBottom <= mScreenRect.bottom) {
-                distanceY = (mScreenRect.bottom - mPageRect.bottom);
-            }
-            //If the height of the document is contained on entire view
-            if (mScreenRect.height() > mPageRect.height()) {
-                //Center vertical
-                moveTo(mPageRect.left + distanceX, (mScreenRect.height() - mPageRect.height()) / 2,render);
-            }
-            //if width of document is contained on entire view:
-            else if (mScreenRect.width() > mPageRect.width()) {
-                //Center horizontal
-                moveTo(((mScreenRect.width() - mPageRect.width()) / 2), mPageRect.top + distanceY,render);
-            } else {
-                moveTo(mPageRect.left + distanceX, mPageRect.top + distanceY,render);
-
+        if (isContinuousScroll) {
+            scrollContinuous(distanceX, distanceY);
+            return;
+        }
+        if (!isSurfaceCreated) return;
+        if (mTransform.movePage(distanceX, distanceY)) {
+            syncPageRect();
+            if (render) {
+                requestRender(true);
             }
         }
     }
 
     protected void recycle() {
+        if (mLoadTask != null) {
+            mLoadTask.cancel();
+            mLoadTask = null;
+        }
+        removeCallbacks(mAvailabilityCheck);
+        mRenderScheduler.cancel();
+        mRenderCache.clear();
+        mPresentedPageIndex = -1;
+        mPageLayout = null;
+        mTransform.setScroll(0, 0);
+        mPageCount = 0;
         try{
-            if(mPdfDoc != null && mDocFileStream != null){
+            if(mPdfDoc != null){
                 mPdfCore.closeDocument(mPdfDoc);
+                mPdfDoc = null;
                 if (DEBUG_MODE) Log.d("Main", "Close Document");
-
-                mDocFileStream.close();
+            }
+            if(mDocFile != null){
+                mDocFile.close();
+                mDocFile = null;
             }
         }catch(IOException e){
             e.printStackTrace();
@@ -360,7 +720,17 @@ public class PdfView extends SurfaceView {
     public void goToPage(int index) {
         if(index >= 0 && index < mPageCount){
             mCurrentPageIndex = index;
-            mRenderPageWorker.submit(mRenderRunnable);
+            if (isContinuousScroll) {
+                if (mPageLayout == null) return;
+                mTransform.setScroll(mTransform.getScrollX(), mPageLayout.getPageTop(index) * mTransform.getZoom());
+                mTransform.clampScroll(mPageLayout);
+                render();
+            } else {
+                resetPageFit();
+            }
+            if (onPageChangedListener != null) {
+                onPageChangedListener.pageChanged(getCurrentPage(), mPageCount);
+            }
         }
     }
     public void nextPage() {
@@ -399,6 +769,10 @@ public class PdfView extends SurfaceView {
         this.onLoadCompleteListener = onLoadCompleteListener;
     }
 
+    private void setOnRenderTimeListener(OnRenderTimeListener onRenderTimeListener) {
+        this.onRenderTimeListener = onRenderTimeListener;
+    }
+
 
 
     public class Configurator {
@@ -411,6 +785,16 @@ public class PdfView extends SurfaceView {
 
         private OnErrorOccurredListener onErrorOccurredListener;
 
+        private OnLoadProgressListener onLoadProgressListener;
+
+        private OnRenderTimeListener onRenderTimeListener;
+
+        private boolean twoPassRender = true;
+
+        private boolean continuousScroll = false;
+
+        private long growingFileSize = 0;
+
         private Configurator(Uri uri) {
             this.uri = uri;
         }
@@ -430,19 +814,298 @@ public class PdfView extends SurfaceView {
             return this;
         }
 
-        public void load() {
+        /**
+         * Follow the load step by step, in place of {@link #onLoad} and {@link #onErrorOccured}
+         */
+        public Configurator onLoadProgress(OnLoadProgressListener onLoadProgressListener) {
+            this.onLoadProgressListener = onLoadProgressListener;
+            this.onLoadCompleteListener = onLoadProgressListener;
+            this.onErrorOccurredListener = onLoadProgressListener;
+            return this;
+        }
+
+        public Configurator onRenderTime(OnRenderTimeListener onRenderTimeListener) {
+            this.onRenderTimeListener = onRenderTimeListener;
+            return this;
+        }
+
+        public Configurator twoPassRender(boolean twoPassRender) {
+            this.twoPassRender = twoPassRender;
+            return this;
+        }
+
+        public Configurator continuousScroll(boolean continuousScroll) {
+            this.continuousScroll = continuousScroll;
+            return this;
+        }
+
+        /**
+         * The file is still being downloaded. Its pages are shown as they arrive, if it is
+         * linearized; the view checks the file twice a second until it is complete.
+         * @param finalSize size of the complete file
+         */
+        public Configurator growingFile(long finalSize) {
+            this.growingFileSize = finalSize;
+            return this;
+        }
+
+        /**
+         * Open the document in the background, cancelling any load in progress.
+         * The listeners are called on the UI thread.
+         * @return a handle to cancel the load
+         */
+        public LoadTask load() {
             PdfView.this.recycle();
             PdfView.this.setOnLoadCompleteListener(onLoadCompleteListener);
+            PdfView.this.onLoadProgressListener = onLoadProgressListener;
             PdfView.this.setOnPageChangedListener(onPageChangedListener);
             PdfView.this.setOnErrorOccuredListener(onErrorOccurredListener);
-            PdfView.this.loadDocument(uri);
+            PdfView.this.setOnRenderTimeListener(onRenderTimeListener);
+            PdfView.this.setTwoPassRender(twoPassRender);
+            PdfView.this.isContinuousScroll = continuousScroll;
+            return PdfView.this.loadDocument(uri, growingFileSize);
         }
     }
 
+    /**
+     * Ask for the current state to be rendered. Never renders on the calling thread:
+     * requests are coalesced into at most one render per frame on the render worker.
+     */
     public void render() {
-        mPdfCore.renderPage(mPdfDoc, mPdfSurfaceHolder.getSurface(), mCurrentPageIndex,
-                mPageRect.left, mPageRect.top,
-                mPageRect.width(), mPageRect.height());
+        requestRender(false);
+    }
+
+    /**
+     * @param preview also stretch the cached content of the displayed page to the new
+     *                position right away, on this thread
+     */
+    private void requestRender(boolean preview) {
+        if (mPdfDoc == null || mPdfSurfaceHolder == null) return;
+        if (isContinuousScroll && mPageLayout == null) return;
+        mRequestState.pageIndex = mCurrentPageIndex;
+        mRequestState.pageRect.set(mPageRect);
+        mRequestState.screenRect.set(mScreenRect);
+        mRequestState.fitWidth = mPageFitWidth;
+        mRequestState.fitHeight = mPageFitHeight;
+        mRequestState.zoomed = mTransform.isZoomed();
+        mRequestState.requestTime = SystemClock.uptimeMillis();
+        mRequestState.layout = isContinuousScroll ? mPageLayout : null;
+        mRequestState.zoom = mTransform.getZoom();
+        mRequestState.scrollX = mTransform.getScrollX();
+        mRequestState.scrollY = mTransform.getScrollY();
+        mRenderScheduler.request(mRequestState);
+
+        if (preview && isSurfaceCreated
+                && (isContinuousScroll || mCurrentPageIndex == mPresentedPageIndex)) {
+            drawPreview(mRequestState);
+        }
+    }
+
+    /** Skipped while the render worker composites: its frame lands right after anyway */
+    private void drawPreview(RenderScheduler.RenderState state) {
+        if (!mSurfaceLock.tryLock()) return;
+        try {
+            Canvas canvas = mPdfSurfaceHolder.lockCanvas();
+            if (canvas == null) return;
+            try {
+                canvas.drawColor(PAGE_BACKGROUND_COLOR);
+                for (int i = state.firstVisiblePage(); i <= state.lastVisiblePage(); i++) {
+                    state.getPageRect(i, mPreviewPageRect);
+                    mTileRenderer.drawPreview(canvas, i, mPreviewPageRect,
+                            state.getFitWidth(i), state.getFitHeight(i), state.screenRect);
+                }
+            } finally {
+                mPdfSurfaceHolder.unlockCanvasAndPost(canvas);
+            }
+        } finally {
+            mSurfaceLock.unlock();
+        }
+    }
+
+    /**
+     * Rasterize what is missing for the state, then composite it onto the surface.
+     * Runs on the render worker.
+     * @return false if cancelled
+     */
+    private boolean renderFrame(RenderScheduler.RenderState state, CancellationSignal signal) {
+        PdfDocument doc = mPdfDoc;
+        if (doc == null) return false;
+
+        pinPage(doc, state.pageIndex);
+        int first = state.firstVisiblePage();
+        int last = state.lastVisiblePage();
+        Rect pageRect = mFramePageRect;
+
+        long firstPixelMillis = -1;
+        if (!state.zoomed && isTwoPassRender && !isFrameCached(doc, state, first, last)) {
+            //First pass: small and cheap, so the pages show up before the sharp render
+            for (int i = first; i <= last; i++) {
+                if (!doc.isPageAvailable(i)) continue;
+                state.getPageRect(i, pageRect);
+                if (!mTileRenderer.prepareCachedPage(i, pageRect)
+                        && !mTileRenderer.preparePreviewPage(doc, i, pageRect, signal)) {
+                    return false;
+                }
+            }
+            if (!postFrame(doc, state, true)) return false;
+            firstPixelMillis = SystemClock.uptimeMillis() - state.requestTime;
+        }
+
+        for (int i = first; i <= last; i++) {
+            //Pages of a growing file not arrived yet stay blank
+            if (!doc.isPageAvailable(i)) continue;
+            state.getPageRect(i, pageRect);
+            boolean ready = state.zoomed
+                    ? mTileRenderer.prepareTiles(doc, i, pageRect,
+                            state.getFitWidth(i), state.getFitHeight(i), state.screenRect, signal)
+                    : mTileRenderer.preparePage(doc, i, pageRect, signal);
+            if (!ready) {
+                if (DEBUG_MODE) Log.d(TAG, "Render cancelled");
+                return false;
+            }
+        }
+        if (!postFrame(doc, state, false)) return false;
+        mPresentedPageIndex = state.pageIndex;
+
+        long sharpMillis = SystemClock.uptimeMillis() - state.requestTime;
+        OnRenderTimeListener listener = onRenderTimeListener;
+        if (listener != null) {
+            listener.renderTime(state.pageIndex + 1,
+                    firstPixelMillis < 0 ? sharpMillis : firstPixelMillis, sharpMillis);
+        }
+
+        preloadAround(state.pageIndex);
+        return true;
+    }
+
+    private boolean isFrameCached(PdfDocument doc, RenderScheduler.RenderState state, int first, int last) {
+        for (int i = first; i <= last; i++) {
+            state.getPageRect(i, mFramePageRect);
+            if (!mTileRenderer.isPageCached(i, mFramePageRect) && doc.isPageAvailable(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Composite what the frame prepared, never rasterizing while the surface is locked.
+     * If part of a sharp frame is missing, e.g. its render ran out of memory, it is left
+     * blank and another frame is requested.
+     * @return false if the surface is gone
+     */
+    private boolean postFrame(PdfDocument doc, RenderScheduler.RenderState state, boolean preview) {
+        boolean complete = true;
+        mSurfaceLock.lock();
+        try {
+            Canvas canvas = mPdfSurfaceHolder.lockCanvas();
+            if (canvas == null) return false;
+            try {
+                canvas.drawColor(PAGE_BACKGROUND_COLOR);
+                Rect pageRect = mFramePageRect;
+                for (int i = state.firstVisiblePage(); i <= state.lastVisiblePage(); i++) {
+                    if (!doc.isPageAvailable(i)) continue;
+                    state.getPageRect(i, pageRect);
+                    boolean drawn = state.zoomed
+                            ? mTileRenderer.draw(canvas, i, pageRect,
+                                    state.getFitWidth(i), state.getFitHeight(i), state.screenRect)
+                            : mTileRenderer.drawPage(canvas, i, pageRect)
+                                    || preview && mTileRenderer.drawPreviewPage(canvas, i, pageRect);
+                    if (!drawn) complete = false;
+                }
+            } finally {
+                mPdfSurfaceHolder.unlockCanvasAndPost(canvas);
+            }
+        } finally {
+            mSurfaceLock.unlock();
+        }
+
+        if (preview) return true;
+        if (complete) {
+            isFrameRetried = false;
+        } else if (!isFrameRetried) {
+            isFrameRetried = true;
+            post(mRenderAgain);
+        } else {
+            //Still missing, don't loop on a page that never renders
+            isFrameRetried = false;
+        }
+        return true;
+    }
+
+    /**
+     * @param twoPass show a low resolution pass before rendering a page at full resolution
+     */
+    public void setTwoPassRender(boolean twoPass) {
+        isTwoPassRender = twoPass;
+    }
+
+    /**
+     * @param flags PdfiumCore.RENDER_FLAG_* used to render pages; the low resolution
+     *              pass leaves out RENDER_FLAG_LCD_TEXT. Cached renders are dropped.
+     */
+    public void setRenderFlags(int flags) {
+        mTileRenderer.setRenderFlags(flags);
+        mRenderCache.clear();
+        render();
+    }
+
+    /** Render requests received, before coalescing */
+    public long getRequestedFrameCount() {
+        return mRenderScheduler.getRequestedFrames();
+    }
+
+    /** Frames actually rendered and posted to the surface */
+    public long getRenderedFrameCount() {
+        return mRenderScheduler.getRenderedFrames();
+    }
+
+    /** Requests replaced by a newer one before their frame started */
+    public long getCoalescedFrameCount() {
+        return mRenderScheduler.getCoalescedFrames();
+    }
+
+    /** Frames aborted while rendering because a newer request came in */
+    public long getDroppedFrameCount() {
+        return mRenderScheduler.getDroppedFrames();
+    }
+
+    /**
+     * @return a loader for thumbnails of the document being shown, to be released before
+     *         another document is loaded; null if no document is loaded
+     */
+    public ThumbnailLoader newThumbnailLoader() {
+        if (mPdfDoc == null) return null;
+        return new ThumbnailLoader(getContext(), mPdfCore, mPdfDoc,
+                mDocFile != null ? mDocFile.getFileDescriptor() : null);
+    }
+
+    public RenderCache getRenderCache() {
+        return mRenderCache;
+    }
+
+    /**
+     * Replace the bitmap cache by one holding at most maxBytes of rendered pages and tiles.
+     * The swap happens on the render worker, between two frames, so a frame in progress
+     * keeps working with the cache it started with.
+     */
+    public void setRenderCacheSize(final int maxBytes) {
+        mRenderPageWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                RenderCache previous = mRenderCache;
+                RenderCache cache = new RenderCache(maxBytes);
+                mTileRenderer.setRenderCache(cache);
+                mRenderCache = cache;
+                previous.clear();
+            }
+        });
+        render();
+    }
+
+    /**
+     * Forward Activity#onTrimMemory here so rendered bitmaps are released under memory pressure.
+     */
+    public void onTrimMemory(int level) {
+        mRenderCache.trimMemory(level);
     }
 
 }
@@ -1,11 +1,24 @@
 package com.shockwave.pdfium;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;
 import android.view.Surface;
 
+import com.shockwave.pdfium.util.PageHandleTable;
+
 import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.shockwave.pdfium.util.Constants.*;
 
 public class PdfiumCore {
     private static final String TAG = PdfiumCore.class.getName();
@@ -14,20 +27,66 @@ public class PdfiumCore {
         System.loadLibrary("jniPdfium");
     }
 
-    private native long nativeOpenDocument(int fd);
+    private native long nativeOpenDocument(int fd, int readAheadBytes, CancellationSignal signal);
+    private native long nativeOpenMemDocument(ByteBuffer buffer);
+    private native long nativeOpenCustomDocument(SeekableSource source, long size, int readAheadBytes);
+    private native long nativeOpenGrowingDocument(int fd, long finalSize, int readAheadBytes);
+    private native boolean nativeLoadIfAvailable(long docPtr);
+    private native int nativeUpdatePageAvailability(long docPtr, boolean[] available, float[] sizes);
     private native void nativeCloseDocument(long docPtr);
     private native int nativeGetPageCount(long docPtr);
     private native long nativeLoadPage(long docPtr, int pageIndex);
     private native long[] nativeLoadPages(long docPtr, int fromIndex, int toIndex);
     private native void nativeClosePage(long pagePtr);
     private native void nativeClosePages(long[] pagesPtr);
-    private native int nativeGetPageWidthPixel(long pagePtr, int dpi);
-    private native int nativeGetPageHeightPixel(long pagePtr, int dpi);
+    private native float[] nativeGetPageSizes(long docPtr);
     //private native long nativeGetNativeWindow(Surface surface);
     //private native void nativeRenderPage(long pagePtr, long nativeWindowPtr);
-    private native void nativeRenderPage(long pagePtr, Surface surface, int dpi,
+    private native long nativeRenderPage(long pagePtr, Surface surface, int dpi,
                                          int startX, int startY,
                                          int drawSizeHor, int drawSizeVer);
+    private native boolean nativeRenderPageBitmap(long pagePtr, Bitmap bitmap, int dpi,
+                                                  int startX, int startY,
+                                                  int drawSizeHor, int drawSizeVer, int flags);
+    private native boolean nativeRenderPageBitmapProgressive(long pagePtr, Bitmap bitmap, int dpi,
+                                                             int startX, int startY,
+                                                             int drawSizeHor, int drawSizeVer,
+                                                             int flags, CancellationSignal signal);
+    private native boolean nativeRenderPageBuffer(long pagePtr, ByteBuffer buffer, int width, int height,
+                                                  int stride, int startX, int startY,
+                                                  int drawSizeHor, int drawSizeVer, int flags);
+    private native boolean[] nativeRenderPagesBitmap(long docPtr, int[] pageIndices, long[] pagesPtr,
+                                                     Bitmap[] bitmaps, int[] rects, int flags);
+    private static native long[] nativeGetBitmapPoolStats();
+    private native long nativeLoadTextPage(long pagePtr);
+    private native void nativeCloseTextPage(long textPagePtr);
+    private native int nativeTextCountChars(long textPagePtr);
+    private native String nativeTextGetText(long textPagePtr, int start, int count);
+    private native String[] nativeGetPagesText(long docPtr, int[] pageIndices, long[] pagesPtr,
+                                               long[] textPagesPtr);
+    private native float[] nativeTextGetCharBoxes(long textPagePtr, int start, int count);
+    private native float[] nativeTextGetRects(long textPagePtr, int start, int count);
+    private native int nativeTextGetCharIndexAtPos(long textPagePtr, double x, double y,
+                                                   double xTolerance, double yTolerance);
+    private native String nativeTextGetBoundedText(long textPagePtr, double left, double top,
+                                                   double right, double bottom);
+    private native int nativeFindBookmark(long docPtr, String title);
+    private native Object[] nativeGetOutlineLevel(long docPtr, long parentPtr);
+    private native Object[] nativeGetPageLinks(long docPtr, int pageIndex, long pagePtr);
+    private native Object[] nativeSearchPage(long docPtr, int pageIndex, long pagePtr, long textPagePtr,
+                                             String query, int flags, boolean withText);
+
+    /** Render annotations (FPDF_ANNOT) */
+    public static final int RENDER_FLAG_ANNOTATIONS = 0x01;
+    /** Text rendering optimized for LCD displays (FPDF_LCD_TEXT), slower */
+    public static final int RENDER_FLAG_LCD_TEXT = 0x02;
+    /** Grayscale output (FPDF_GRAYSCALE) */
+    public static final int RENDER_FLAG_GRAYSCALE = 0x08;
+
+    /** Search matching case (FPDF_MATCHCASE) */
+    public static final int SEARCH_MATCH_CASE = 0x01;
+    /** Search matching whole words only (FPDF_MATCHWHOLEWORD) */
+    public static final int SEARCH_WHOLE_WORD = 0x02;
 
     private static final Class FD_CLASS = FileDescriptor.class;
     private static final String FD_FIELD_NAME = "descriptor";
@@ -39,6 +98,14 @@ public class PdfiumCore {
         mCurrentDpi = ctx.getResources().getDisplayMetrics().densityDpi;
     }
 
+    /**
+     * Without a Context, e.g. on a host JVM, where only the buffer renders are available.
+     * @param dpi density {@link #getPageWidth} and {@link #getPageHeight} convert points to
+     */
+    public PdfiumCore(int dpi){
+        mCurrentDpi = dpi;
+    }
+
     public static int getNumFd(FileDescriptor fdObj){
         try{
             if(mFdField == null){
@@ -57,65 +124,609 @@ public class PdfiumCore {
     }
 
     public PdfDocument newDocument(FileDescriptor fd){
+        return newDocument(fd, DOCUMENT_READ_AHEAD_BYTES);
+    }
+
+    /**
+     * Open a document streamed from a file: pdfium reads the parts it needs when it needs
+     * them, so opening a large file doesn't map or load all of it.
+     * The file must stay open until the document is closed.
+     * @param readAheadBytes memory for caching the small reads in 64KB blocks, 0 to disable
+     */
+    public PdfDocument newDocument(FileDescriptor fd, int readAheadBytes){
+        long start = PdfiumMetrics.start();
         PdfDocument document = new PdfDocument();
+        document.mNativeDocPtr = nativeOpenDocument(getNumFd(fd), Math.max(0, readAheadBytes), null);
+        return initDocument(document, start);
+    }
+
+    /**
+     * Open a document from a file descriptor, e.g. from
+     * {@link android.content.ContentResolver#openFileDescriptor} for content:// URIs.
+     * It must stay open until the document is closed.
+     */
+    public PdfDocument newDocument(ParcelFileDescriptor fd){
+        return newDocument(fd, null);
+    }
 
-        document.mNativeDocPtr = nativeOpenDocument(getNumFd(fd));
-        if(document.mNativeDocPtr == -1) Log.e(TAG, "Open document failed:"+document.mNativeDocPtr);
+    /**
+     * @param signal cancelling it from another thread makes the open fail early, pdfium then
+     *               stops parsing at its next read of the file; may be null
+     */
+    public PdfDocument newDocument(ParcelFileDescriptor fd, CancellationSignal signal){
+        long start = PdfiumMetrics.start();
+        PdfDocument document = new PdfDocument();
+        document.mNativeDocPtr = nativeOpenDocument(getNumFd(fd.getFileDescriptor()),
+                DOCUMENT_READ_AHEAD_BYTES, signal);
+        return initDocument(document, start);
+    }
 
+    /**
+     * Open a document held in memory. pdfium reads it in place: the buffer is kept
+     * referenced and must not be modified until the document is closed.
+     * @param buffer direct buffer, the document being its remaining bytes
+     */
+    public PdfDocument newDocument(ByteBuffer buffer){
+        if(!buffer.isDirect()) throw new IllegalArgumentException("Document buffer must be direct");
+        long start = PdfiumMetrics.start();
+        PdfDocument document = new PdfDocument();
+        document.mNativeDocPtr = nativeOpenMemDocument(buffer.slice());
+        return initDocument(document, start);
+    }
+
+    /** Open a document read through source, with the default read-ahead cache */
+    public PdfDocument newDocument(SeekableSource source) throws IOException {
+        return newDocument(source, DOCUMENT_READ_AHEAD_BYTES);
+    }
+
+    /**
+     * Open a document read through source on demand: only the parts pdfium needs are read,
+     * a page at a time. Each read is a call from native code, so a read-ahead cache helps more
+     * than for files. The source must stay usable until the document is closed, and its reads
+     * hold up every document: see {@link SeekableSource} for what they must not do.
+     * @param readAheadBytes memory for caching the small reads in 64KB blocks, 0 to disable
+     */
+    public PdfDocument newDocument(SeekableSource source, int readAheadBytes) throws IOException {
+        long start = PdfiumMetrics.start();
+        PdfDocument document = new PdfDocument();
+        document.mNativeDocPtr = nativeOpenCustomDocument(source, source.size(),
+                Math.max(0, readAheadBytes));
+        return initDocument(document, start);
+    }
+
+    /**
+     * Open a file still being downloaded, e.g. written in chunks by a download manager.
+     * Linearized files can be shown before they are complete: first the document,
+     * then each page becomes available once its data arrived. Other files only load
+     * once complete.
+     * <p/>
+     * Call {@link #updateAvailability(PdfDocument)} whenever more data was written;
+     * until {@link PdfDocument#isLoaded()}, the document has no pages.
+     * @param fd        file appended to in order; what it holds so far is read,
+     *                  so it must not be preallocated to its final size
+     * @param finalSize size of the complete file, e.g. the Content-Length of the download
+     */
+    public PdfDocument newGrowingDocument(FileDescriptor fd, long finalSize){
+        PdfDocument document = new PdfDocument();
+        document.mNativeDocPtr = nativeOpenGrowingDocument(getNumFd(fd), finalSize,
+                DOCUMENT_READ_AHEAD_BYTES);
+        if(document.mNativeDocPtr == -1){
+            Log.e(TAG, "Open document failed:"+document.mNativeDocPtr);
+            return document;
+        }
+        document.isGrowing = true;
+        document.isLoaded = false;
+        updateAvailability(document);
         return document;
     }
-    public int getPageCount(PdfDocument doc){
+
+    /**
+     * Check what arrived of a growing file: load the document once its start is there,
+     * then the pages whose data is complete. Pages not available yet are given the size of
+     * the first available page, or A4, and get their real size once they arrive.
+     * @return true if the document or some pages became available
+     */
+    public boolean updateAvailability(PdfDocument doc){
         synchronized (doc.Lock){
-            return nativeGetPageCount(doc.mNativeDocPtr);
+            if(!doc.isGrowing || doc.mNativeDocPtr == -1) return false;
+            boolean loaded = false;
+            if(!doc.isLoaded){
+                if(!nativeLoadIfAvailable(doc.mNativeDocPtr)) return false;
+                int pageCount = nativeGetPageCount(doc.mNativeDocPtr);
+                doc.mAvailablePages = new boolean[pageCount];
+                doc.mAvailableSizes = new float[pageCount * 2];
+                doc.mNativePagesPtr.ensureCapacity(pageCount);
+                doc.isLoaded = true;
+                loaded = true;
+            }
+            if(doc.mAvailablePages == null) return loaded;
+
+            int added = nativeUpdatePageAvailability(doc.mNativeDocPtr,
+                    doc.mAvailablePages, doc.mAvailableSizes);
+            if(added == 0 && !loaded) return false;
+            doc.mAvailablePageCount += added;
+            doc.mPageSizes = estimatePageSizes(doc.mAvailablePages, doc.mAvailableSizes);
+            if(doc.mAvailablePageCount == doc.mAvailablePages.length){
+                doc.mAvailablePages = null;
+                doc.mAvailableSizes = null;
+            }
+            return true;
+        }
+    }
+
+    /** Sizes of the available pages, the others guessed from the first available one */
+    private static float[] estimatePageSizes(boolean[] available, float[] sizes){
+        float width = A4_WIDTH_POINTS;
+        float height = A4_HEIGHT_POINTS;
+        for(int i = 0; i < available.length; i++){
+            if(available[i]){
+                width = sizes[i * 2];
+                height = sizes[i * 2 + 1];
+                break;
+            }
         }
+        float[] estimated = sizes.clone();
+        for(int i = 0; i < available.length; i++){
+            if(!available[i]){
+                estimated[i * 2] = width;
+                estimated[i * 2 + 1] = height;
+            }
+        }
+        return estimated;
+    }
+
+    /**
+     * Open a document from a stream that can't be read at random, e.g. from a content
+     * provider without file descriptors. The whole stream is read into native memory first,
+     * prefer the other sources when there is a choice.
+     */
+    public PdfDocument newDocument(InputStream in) throws IOException {
+        return newDocument(in, null);
+    }
+
+    /**
+     * @param signal checked between reads of the stream, an IOException is thrown
+     *               once it is cancelled; may be null
+     */
+    public PdfDocument newDocument(InputStream in, CancellationSignal signal) throws IOException {
+        return newDocument(readFully(in, signal));
+    }
+
+    /** @param openStart from {@link PdfiumMetrics#start()} before the document was opened */
+    private PdfDocument initDocument(PdfDocument document, long openStart){
+        if(document.mNativeDocPtr == -1){
+            Log.e(TAG, "Open document failed:"+document.mNativeDocPtr);
+        }else{
+            float[] pageSizes = nativeGetPageSizes(document.mNativeDocPtr);
+            if(pageSizes != null) document.mPageSizes = pageSizes;
+            document.mNativePagesPtr.ensureCapacity(document.getPageCount());
+            PdfiumMetrics.sOpen.recordSince(openStart);
+        }
+
+        return document;
+    }
+
+    /** @return a direct buffer holding the rest of the stream, flipped for reading */
+    private static ByteBuffer readFully(InputStream in, CancellationSignal signal) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(in.available(), 64 * 1024));
+        byte[] chunk = new byte[16 * 1024];
+        int n;
+        while((n = in.read(chunk)) != -1){
+            if(signal != null && signal.isCanceled()) throw new IOException("Reading document cancelled");
+            if(buffer.remaining() < n){
+                ByteBuffer larger = ByteBuffer.allocateDirect(
+                        Math.max(buffer.capacity() * 2, buffer.position() + n));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            buffer.put(chunk, 0, n);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    public int getPageCount(PdfDocument doc){
+        return doc.getPageCount();
     }
 
+    /**
+     * @return the page handle, 0 if it can't be loaded: out of range, not arrived yet in a
+     *         growing file, or a load failure. Failures aren't kept, the next call retries.
+     */
     public long openPage(PdfDocument doc, int pageIndex){
         synchronized (doc.Lock){
+            if(!canLoadPages(doc) || pageIndex < 0 || pageIndex >= doc.getPageCount()) return 0;
+            if(doc.mAvailablePages != null && !doc.mAvailablePages[pageIndex]) return 0;
+            long loaded = doc.mNativePagesPtr.get(pageIndex);
+            if(loaded != 0) return loaded;
+
+            long start = PdfiumMetrics.start();
             long pagePtr = nativeLoadPage(doc.mNativeDocPtr, pageIndex);
+            PdfiumMetrics.sPageLoad.recordSince(start);
+            if(!isPage(pagePtr)) return 0;
+            PdfiumMetrics.pagesOpened(1);
             doc.mNativePagesPtr.put(pageIndex, pagePtr);
+            evictPages(doc);
             return pagePtr;
         }
     }
+
+    /** @return pages can be loaded: the document is open and, if growing, its start arrived */
+    private static boolean canLoadPages(PdfDocument doc){
+        return doc.mNativeDocPtr != -1 && !(doc.isGrowing && !doc.isLoaded);
+    }
+
+    /** @return the handles of the pages loaded, invalid ones (0 or -1) for pages that failed */
     public long[] openPage(PdfDocument doc, int fromIndex, int toIndex){
         synchronized (doc.Lock){
+            if(!canLoadPages(doc)) return new long[0];
+            long start = PdfiumMetrics.start();
             long[] pagesPtr = nativeLoadPages(doc.mNativeDocPtr, fromIndex, toIndex);
+            if(pagesPtr == null) return new long[0];
+            long elapsed = start != 0 ? System.nanoTime() - start : 0;
             int pageIndex = fromIndex;
             for(long page : pagesPtr){
                 if(pageIndex > toIndex) break;
-                doc.mNativePagesPtr.put(pageIndex, page);
+                //One sample per page, each taking its share of the batch
+                if(start != 0) PdfiumMetrics.sPageLoad.record(elapsed / pagesPtr.length);
+                if(isPage(page)){
+                    PdfiumMetrics.pagesOpened(1);
+                    long previous = doc.mNativePagesPtr.put(pageIndex, page);
+                    if(previous != 0 && previous != page){
+                        closeTextPage(doc, pageIndex);
+                        closeNativePage(previous);
+                    }
+                }
                 pageIndex++;
             }
+            evictPages(doc);
 
             return pagesPtr;
         }
     }
-    public int getPageWidth(PdfDocument doc, int index){
+
+    /**
+     * Keep a page open until {@link #unpinPage(PdfDocument, int)} is called,
+     * so it can't be evicted while another thread still renders it.
+     * Loads the page if needed. Pins are counted.
+     */
+    public long pinPage(PdfDocument doc, int pageIndex){
         synchronized (doc.Lock){
-            Long pagePtr;
-            if( (pagePtr = doc.mNativePagesPtr.get(index)) != null ){
-                return nativeGetPageWidthPixel(pagePtr, mCurrentDpi);
+            doc.mNativePagesPtr.pin(pageIndex);
+            return openPage(doc, pageIndex);
+        }
+    }
+    public void unpinPage(PdfDocument doc, int pageIndex){
+        synchronized (doc.Lock){
+            if(doc.mNativePagesPtr.unpin(pageIndex)){
+                evictPages(doc);
             }
-            return 0;
         }
     }
-    public int getPageHeight(PdfDocument doc, int index){
+
+    /**
+     * Set how many pages may stay open at once; least recently used pages
+     * beyond that are closed. Pinned pages are never closed, so the
+     * capacity can be exceeded while they are.
+     */
+    public void setPageCapacity(PdfDocument doc, int capacity){
+        if(capacity < 1) throw new IllegalArgumentException("Page capacity must be positive");
+        synchronized (doc.Lock){
+            doc.mPageCapacity = capacity;
+            evictPages(doc);
+        }
+    }
+
+    private void evictPages(PdfDocument doc){
+        PageHandleTable pages = doc.mNativePagesPtr;
+        while(pages.size() > doc.mPageCapacity){
+            int victim = pages.findEvictable();
+            if(victim < 0) return;
+
+            if (DEBUG_MODE) Log.d(TAG, "Close page: " + victim);
+            closeTextPage(doc, victim);
+            closeNativePage(pages.remove(victim));
+        }
+    }
+
+    /** @return whether a handle returned by nativeLoadPage is an open page: 0 and -1 are failures */
+    private static boolean isPage(long pagePtr){
+        return pagePtr != 0 && pagePtr != -1;
+    }
+
+    private void closeNativePage(long pagePtr){
+        if(!isPage(pagePtr)) return;
+        nativeClosePage(pagePtr);
+        PdfiumMetrics.pagesClosed(1);
+    }
+
+    /** Text pages must go before their page */
+    private void closeTextPage(PdfDocument doc, int pageIndex){
+        long textPage = doc.mNativeTextPagesPtr.remove(pageIndex);
+        if(textPage != 0) nativeCloseTextPage(textPage);
+    }
+
+    /**
+     * @return the text page of an open page, loading both if needed; 0 if the page can't
+     *         be loaded. The least recently used text pages beyond TEXT_PAGE_CAPACITY are closed.
+     */
+    private long openTextPage(PdfDocument doc, int pageIndex){
+        PageHandleTable textPages = doc.mNativeTextPagesPtr;
+        long textPage = textPages.get(pageIndex);
+        if(textPage != 0){
+            //Keep the page open as long as its text
+            doc.mNativePagesPtr.get(pageIndex);
+            return textPage;
+        }
+
+        long page = openPage(doc, pageIndex);
+        if(page == 0 || page == -1) return 0;
+        textPage = nativeLoadTextPage(page);
+        if(textPage == 0) return 0;
+        textPages.put(pageIndex, textPage);
+        while(textPages.size() > TEXT_PAGE_CAPACITY){
+            int victim = textPages.findEvictable();
+            if(victim < 0) break;
+            nativeCloseTextPage(textPages.remove(victim));
+        }
+        return textPage;
+    }
+
+    private static void checkPageIndex(PdfDocument doc, int pageIndex){
+        if(pageIndex < 0 || pageIndex >= doc.getPageCount()){
+            throw new IndexOutOfBoundsException("Page index: " + pageIndex);
+        }
+    }
+
+    /** @return number of characters of the page, 0 if it can't be loaded */
+    public int getTextCharCount(PdfDocument doc, int pageIndex){
+        checkPageIndex(doc, pageIndex);
+        synchronized (doc.Lock){
+            long textPage = openTextPage(doc, pageIndex);
+            return textPage != 0 ? nativeTextCountChars(textPage) : 0;
+        }
+    }
+
+    /** @return the whole text of the page, null if it can't be loaded */
+    public String getPageText(PdfDocument doc, int pageIndex){
+        return getText(doc, pageIndex, 0, -1);
+    }
+
+    /**
+     * Text of a character range. Character indices are those of the other text methods,
+     * they don't match offsets in the returned string when characters have no unicode.
+     * @param count characters from start, -1 for the rest of the page
+     */
+    public String getText(PdfDocument doc, int pageIndex, int start, int count){
+        checkPageIndex(doc, pageIndex);
+        synchronized (doc.Lock){
+            long textPage = openTextPage(doc, pageIndex);
+            return textPage != 0 ? nativeTextGetText(textPage, start, count) : null;
+        }
+    }
+
+    /**
+     * Whole text of several pages through one JNI call, e.g. to index a document.
+     * Pages not open are loaded for the call only, so the page and text caches kept for
+     * the displayed pages aren't flushed.
+     * @return the text of each page, null for pages that couldn't be loaded
+     */
+    public String[] getPagesText(PdfDocument doc, int[] pageIndices){
+        for(int pageIndex : pageIndices) checkPageIndex(doc, pageIndex);
+        synchronized (doc.Lock){
+            int count = pageIndices.length;
+            if(doc.mNativeDocPtr == -1) return new String[count];
+            long[] pages = new long[count];
+            long[] textPages = new long[count];
+            for(int i = 0; i < count; i++){
+                pages[i] = doc.mNativePagesPtr.get(pageIndices[i]);
+                textPages[i] = doc.mNativeTextPagesPtr.get(pageIndices[i]);
+            }
+            String[] texts = nativeGetPagesText(doc.mNativeDocPtr, pageIndices, pages, textPages);
+            return texts != null ? texts : new String[count];
+        }
+    }
+
+    /**
+     * Boxes of a character range, in page points with the origin at the bottom left
+     * (y goes up, so top > bottom).
+     * @param count characters from start, -1 for the rest of the page
+     * @return left, top, right, bottom of each character; empty if the page can't be loaded
+     */
+    public float[] getTextCharBoxes(PdfDocument doc, int pageIndex, int start, int count){
+        checkPageIndex(doc, pageIndex);
+        synchronized (doc.Lock){
+            long textPage = openTextPage(doc, pageIndex);
+            float[] boxes = textPage != 0 ? nativeTextGetCharBoxes(textPage, start, count) : null;
+            return boxes != null ? boxes : new float[0];
+        }
+    }
+
+    /**
+     * Rectangles covering a character range, one per run of characters on a line,
+     * e.g. to highlight a search hit or a selection. Same coordinates as
+     * {@link #getTextCharBoxes}.
+     * @param count characters from start, -1 for the rest of the page
+     * @return left, top, right, bottom of each rectangle
+     */
+    public float[] getTextRangeRects(PdfDocument doc, int pageIndex, int start, int count){
+        checkPageIndex(doc, pageIndex);
+        synchronized (doc.Lock){
+            long textPage = openTextPage(doc, pageIndex);
+            float[] rects = textPage != 0 ? nativeTextGetRects(textPage, start, count) : null;
+            return rects != null ? rects : new float[0];
+        }
+    }
+
+    /**
+     * @param x         in page points, origin at the bottom left
+     * @param tolerance how far from a character box a point may be, in points
+     * @return index of the character at the point, -1 if none
+     */
+    public int getTextCharIndexAtPos(PdfDocument doc, int pageIndex, double x, double y,
+                                     double tolerance){
+        checkPageIndex(doc, pageIndex);
+        synchronized (doc.Lock){
+            long textPage = openTextPage(doc, pageIndex);
+            if(textPage == 0) return -1;
+            return nativeTextGetCharIndexAtPos(textPage, x, y, tolerance, tolerance);
+        }
+    }
+
+    /**
+     * Find text in one page, reusing its text page when open, e.g. for the page displayed.
+     * Use a {@link DocumentSearch} for the whole document.
+     * @param flags SEARCH_* combination
+     * @return the hits in page order, empty if the page can't be loaded
+     */
+    public List<SearchHit> searchPage(PdfDocument doc, int pageIndex, String query, int flags){
+        checkPageIndex(doc, pageIndex);
+        synchronized (doc.Lock){
+            long textPage = openTextPage(doc, pageIndex);
+            if(textPage == 0) return new ArrayList<SearchHit>();
+            Object[] result = nativeSearchPage(doc.mNativeDocPtr, pageIndex, 0, textPage,
+                                               query, flags, false);
+            List<SearchHit> hits = new ArrayList<SearchHit>();
+            if(result != null) addSearchHits(pageIndex, result, hits);
+            return hits;
+        }
+    }
+
+    /**
+     * Search a page for the background search, under the document lock for this page only.
+     * Pages not open are loaded for the call, so the caches of the displayed pages stay.
+     * @param text if not null, receives the page text at index 0
+     * @return false if the page couldn't be searched
+     */
+    /*package*/ boolean searchPageTransient(PdfDocument doc, int pageIndex, String query, int flags,
+                                            List<SearchHit> hits, String[] text){
+        synchronized (doc.Lock){
+            if(doc.mNativeDocPtr == -1) return false;
+            Object[] result = nativeSearchPage(doc.mNativeDocPtr, pageIndex,
+                    doc.mNativePagesPtr.get(pageIndex), doc.mNativeTextPagesPtr.get(pageIndex),
+                    query, flags, text != null);
+            if(result == null) return false;
+            addSearchHits(pageIndex, result, hits);
+            if(text != null) text[0] = (String)result[2];
+            return true;
+        }
+    }
+
+    private static void addSearchHits(int pageIndex, Object[] result, List<SearchHit> hits){
+        int[] ranges = (int[])result[0];
+        float[] rects = (float[])result[1];
+        int rect = 0;
+        for(int i = 0; i < ranges.length; i += 3){
+            int rectCount = ranges[i + 2];
+            float[] hitRects = new float[rectCount * 4];
+            System.arraycopy(rects, rect * 4, hitRects, 0, hitRects.length);
+            rect += rectCount;
+            hits.add(new SearchHit(pageIndex, ranges[i], ranges[i + 1], hitRects));
+        }
+    }
+
+    /** @return the text inside a rectangle in page points, origin at the bottom left */
+    public String getBoundedText(PdfDocument doc, int pageIndex, double left, double top,
+                                 double right, double bottom){
+        checkPageIndex(doc, pageIndex);
+        synchronized (doc.Lock){
+            long textPage = openTextPage(doc, pageIndex);
+            return textPage != 0 ? nativeTextGetBoundedText(textPage, left, top, right, bottom) : null;
+        }
+    }
+
+    /**
+     * Top level of the outline (table of contents), read on the first call.
+     * Empty without one, or when the pdfium linked can't walk outlines, see Android.mk.
+     */
+    public Outline getOutline(PdfDocument doc){
         synchronized (doc.Lock){
-            Long pagePtr;
-            if( (pagePtr = doc.mNativePagesPtr.get(index)) != null ){
-                return nativeGetPageHeightPixel(pagePtr, mCurrentDpi);
+            if(doc.mOutline == null){
+                if(doc.mNativeDocPtr == -1) return Outline.EMPTY;
+                doc.mOutline = readOutlineLevel(doc, 0);
             }
-            return 0;
+            return doc.mOutline;
         }
     }
 
+    /** Children of an outline entry, read on the first call for that entry only */
+    public Outline getOutlineChildren(PdfDocument doc, Outline level, int index){
+        synchronized (doc.Lock){
+            if(!level.hasChildren(index)) return Outline.EMPTY;
+            if(level.mChildren == null) level.mChildren = new Outline[level.size()];
+            if(level.mChildren[index] == null){
+                if(doc.mNativeDocPtr == -1) return Outline.EMPTY;
+                level.mChildren[index] = readOutlineLevel(doc, level.mBookmarkPtrs[index]);
+            }
+            return level.mChildren[index];
+        }
+    }
+
+    private Outline readOutlineLevel(PdfDocument doc, long parentPtr){
+        Object[] result = nativeGetOutlineLevel(doc.mNativeDocPtr, parentPtr);
+        if(result == null) return Outline.EMPTY;
+        return new Outline((long[])result[0], (int[])result[1], (boolean[])result[2],
+                           (String[])result[3]);
+    }
+
+    /**
+     * Page of the first bookmark with this exact title, without walking the outline.
+     * @return -1 if there is none, or it doesn't lead to a page of the document
+     */
+    public int findBookmarkPage(PdfDocument doc, String title){
+        synchronized (doc.Lock){
+            if(doc.mNativeDocPtr == -1) return -1;
+            return nativeFindBookmark(doc.mNativeDocPtr, title);
+        }
+    }
+
+    /**
+     * Links of a page, read on the first call for that page and kept with the document.
+     * Pages not open are loaded for the call only.
+     * @return empty if the page can't be loaded, e.g. not arrived yet in a growing file
+     */
+    public PageLinks getPageLinks(PdfDocument doc, int pageIndex){
+        checkPageIndex(doc, pageIndex);
+        synchronized (doc.Lock){
+            PageLinks[] cache = doc.mPageLinks;
+            if(pageIndex < cache.length && cache[pageIndex] != null) return cache[pageIndex];
+            if(doc.mNativeDocPtr == -1) return PageLinks.EMPTY;
+            Object[] result = nativeGetPageLinks(doc.mNativeDocPtr, pageIndex,
+                                                 doc.mNativePagesPtr.get(pageIndex));
+            if(result == null) return PageLinks.EMPTY;
+            PageLinks links = new PageLinks((float[])result[0], (int[])result[1], (String[])result[2]);
+            //Pages of a growing file may have been added since
+            if(pageIndex >= cache.length) doc.mPageLinks = cache = Arrays.copyOf(cache, doc.getPageCount());
+            cache[pageIndex] = links;
+            return links;
+        }
+    }
+
+    /** Page width in pixels at the screen density. The page doesn't need to be opened. */
+    public int getPageWidth(PdfDocument doc, int index){
+        return (int)(doc.getPageWidthPoint(index) * mCurrentDpi / 72);
+    }
+    /** Page height in pixels at the screen density. The page doesn't need to be opened. */
+    public int getPageHeight(PdfDocument doc, int index){
+        return (int)(doc.getPageHeightPoint(index) * mCurrentDpi / 72);
+    }
+
     public void renderPage(PdfDocument doc, Surface surface, int pageIndex,
                            int startX, int startY, int drawSizeX, int drawSizeY){
         synchronized (doc.Lock){
             try{
                 //nativeRenderPage(doc.mNativePagesPtr.get(pageIndex), surface, mCurrentDpi);
-                nativeRenderPage(doc.mNativePagesPtr.get(pageIndex), surface, mCurrentDpi,
-                                    startX, startY, drawSizeX, drawSizeY);
+                long page = openPage(doc, pageIndex);
+                long start = PdfiumMetrics.start();
+                long lockWait = nativeRenderPage(page, surface, mCurrentDpi,
+                                                 startX, startY, drawSizeX, drawSizeY);
+                if(lockWait >= 0){
+                    PdfiumMetrics.sWindowLock.record(lockWait);
+                    //The window size isn't known here, the page is assumed to fit
+                    PdfiumMetrics.recordRender(start, PdfiumMetrics.drawnPixels(
+                            Integer.MAX_VALUE, Integer.MAX_VALUE, startX, startY, drawSizeX, drawSizeY));
+                }
             }catch(NullPointerException e){
                 Log.e(TAG, "mContext may be null");
                 e.printStackTrace();
@@ -126,14 +737,224 @@ public class PdfiumCore {
         }
     }
 
+    /**
+     * Render a page into an ARGB_8888 bitmap instead of a window surface.
+     * The page is drawn at (startX, startY) with size drawSizeX x drawSizeY
+     * in bitmap coordinates, so a negative start offset renders a sub-area (tile) of the page.
+     * @return false if the page couldn't be rendered, the bitmap content is undefined then
+     */
+    public boolean renderPageBitmap(PdfDocument doc, Bitmap bitmap, int pageIndex,
+                                    int startX, int startY, int drawSizeX, int drawSizeY){
+        return renderPageBitmap(doc, bitmap, pageIndex, startX, startY, drawSizeX, drawSizeY, 0);
+    }
+
+    /**
+     * @param flags RENDER_FLAG_* combination
+     */
+    public boolean renderPageBitmap(PdfDocument doc, Bitmap bitmap, int pageIndex,
+                                    int startX, int startY, int drawSizeX, int drawSizeY, int flags){
+        synchronized (doc.Lock){
+            try{
+                long page = openPage(doc, pageIndex);
+                long start = PdfiumMetrics.start();
+                boolean done = nativeRenderPageBitmap(page, bitmap, mCurrentDpi,
+                                                      startX, startY, drawSizeX, drawSizeY, flags);
+                //Failed renders would skew the time per pixel
+                if(done){
+                    PdfiumMetrics.recordRender(start, PdfiumMetrics.drawnPixels(
+                            bitmap.getWidth(), bitmap.getHeight(), startX, startY, drawSizeX, drawSizeY));
+                }
+                return done;
+            }catch(NullPointerException e){
+                Log.e(TAG, "mContext may be null");
+                e.printStackTrace();
+                return false;
+            }catch(Exception e){
+                Log.e(TAG, "Exception throw from native");
+                e.printStackTrace();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #renderPageBitmap(PdfDocument, Bitmap, int, int, int, int, int)},
+     * but rendered progressively (fpdf_progressive) so it can be aborted through the signal.
+     * @param signal null to render without cancellation, as the overloads without one do
+     * @return true if the page was fully rendered, false if cancelled or failed,
+     *         in which case the bitmap content is undefined
+     */
+    public boolean renderPageBitmap(PdfDocument doc, Bitmap bitmap, int pageIndex,
+                                    int startX, int startY, int drawSizeX, int drawSizeY,
+                                    CancellationSignal signal){
+        return renderPageBitmap(doc, bitmap, pageIndex, startX, startY, drawSizeX, drawSizeY, 0, signal);
+    }
+
+    /**
+     * @param flags RENDER_FLAG_* combination
+     */
+    public boolean renderPageBitmap(PdfDocument doc, Bitmap bitmap, int pageIndex,
+                                    int startX, int startY, int drawSizeX, int drawSizeY,
+                                    int flags, CancellationSignal signal){
+        if(signal == null){
+            return renderPageBitmap(doc, bitmap, pageIndex, startX, startY, drawSizeX, drawSizeY, flags);
+        }
+        if(signal.isCanceled()) return false;
+        synchronized (doc.Lock){
+            try{
+                long page = openPage(doc, pageIndex);
+                long start = PdfiumMetrics.start();
+                boolean done = nativeRenderPageBitmapProgressive(page, bitmap, mCurrentDpi,
+                                                                 startX, startY, drawSizeX, drawSizeY,
+                                                                 flags, signal);
+                //Cancelled renders would skew the time per pixel
+                if(done){
+                    PdfiumMetrics.recordRender(start, PdfiumMetrics.drawnPixels(
+                            bitmap.getWidth(), bitmap.getHeight(), startX, startY, drawSizeX, drawSizeY));
+                }
+                return done;
+            }catch(Exception e){
+                Log.e(TAG, "Exception throw from native");
+                e.printStackTrace();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Render a page into a direct buffer of width x height RGBA pixels, 4 bytes each,
+     * without android.graphics: the render available on a host JVM.
+     * @return false if the buffer is too small or the page couldn't be rendered
+     */
+    public boolean renderPageBuffer(PdfDocument doc, int pageIndex, ByteBuffer buffer, int width, int height,
+                                    int startX, int startY, int drawSizeX, int drawSizeY, int flags){
+        if(!buffer.isDirect()) throw new IllegalArgumentException("Render buffer must be direct");
+        synchronized (doc.Lock){
+            long page = openPage(doc, pageIndex);
+            if(!isPage(page)) return false;
+            long start = PdfiumMetrics.start();
+            boolean done = nativeRenderPageBuffer(page, buffer, width, height, width * 4,
+                                                  startX, startY, drawSizeX, drawSizeY, flags);
+            if(done){
+                PdfiumMetrics.recordRender(start, PdfiumMetrics.drawnPixels(
+                        width, height, startX, startY, drawSizeX, drawSizeY));
+            }
+            return done;
+        }
+    }
+
+    /**
+     * Render a page into a caller supplied ARGB_8888 bitmap, no view needed: meant for
+     * exports, sharing as image or OCR. The bitmap can be reused across calls.
+     * <p/>
+     * A page that isn't open already is loaded for this render only and closed right after,
+     * so offscreen jobs don't fill the page pool nor evict the pages being displayed.
+     * @param rect  where the page is drawn in the bitmap; it may extend past the bitmap to render
+     *              a part of the page. The rest of the bitmap gets the background color.
+     * @param flags RENDER_FLAG_* combination
+     * @return false if the document is closed or the page couldn't be rendered
+     */
+    public boolean renderPageBitmap(PdfDocument doc, int pageIndex, Bitmap bitmap, Rect rect, int flags){
+        boolean[] rendered = renderPagesBitmap(doc, new int[]{ pageIndex }, new Bitmap[]{ bitmap },
+                                               new Rect[]{ rect }, flags);
+        return rendered[0];
+    }
+
+    /**
+     * Batch version of {@link #renderPageBitmap(PdfDocument, int, Bitmap, Rect, int)}: every page
+     * is rendered into its bitmap through a single JNI call, under one acquisition of the
+     * document lock.
+     * @param rects where each page is drawn in its bitmap, null to fill each bitmap
+     * @return whether each page was rendered
+     */
+    public boolean[] renderPagesBitmap(PdfDocument doc, int[] pageIndices, Bitmap[] bitmaps,
+                                       Rect[] rects, int flags){
+        int count = pageIndices.length;
+        if(bitmaps.length != count || (rects != null && rects.length != count)){
+            throw new IllegalArgumentException("One bitmap and rect per page expected");
+        }
+
+        int[] bounds = new int[count * 4];
+        for(int i = 0; i < count; i++){
+            if(rects != null){
+                Rect rect = rects[i];
+                bounds[i * 4] = rect.left;
+                bounds[i * 4 + 1] = rect.top;
+                bounds[i * 4 + 2] = rect.right;
+                bounds[i * 4 + 3] = rect.bottom;
+            }else{
+                bounds[i * 4 + 2] = bitmaps[i].getWidth();
+                bounds[i * 4 + 3] = bitmaps[i].getHeight();
+            }
+        }
+
+        synchronized (doc.Lock){
+            if(doc.mNativeDocPtr == -1) return new boolean[count];
+
+            long[] pages = new long[count];
+            for(int i = 0; i < count; i++){
+                if(pageIndices[i] < 0 || pageIndices[i] >= doc.getPageCount()){
+                    throw new IndexOutOfBoundsException("Page index: " + pageIndices[i]);
+                }
+                pages[i] = doc.mNativePagesPtr.get(pageIndices[i]);
+            }
+            long start = PdfiumMetrics.start();
+            boolean[] rendered = nativeRenderPagesBitmap(doc.mNativeDocPtr, pageIndices, pages,
+                                                         bitmaps, bounds, flags);
+            if(start != 0 && rendered != null){
+                //Pages not open are loaded by the call, their load is counted as render time
+                long pixels = 0;
+                for(int i = 0; i < count; i++){
+                    if(!rendered[i]) continue;
+                    pixels += PdfiumMetrics.drawnPixels(bitmaps[i].getWidth(), bitmaps[i].getHeight(),
+                            bounds[i * 4], bounds[i * 4 + 1],
+                            bounds[i * 4 + 2] - bounds[i * 4], bounds[i * 4 + 3] - bounds[i * 4 + 1]);
+                }
+                PdfiumMetrics.recordRender(start, pixels);
+            }
+            return rendered != null ? rendered : new boolean[count];
+        }
+    }
+
+    /**
+     * Render a whole page scaled to the bitmap, for thumbnails, without keeping it open.
+     * @return false if the document is closed or the page couldn't be rendered
+     */
+    public boolean renderThumbnail(PdfDocument doc, Bitmap bitmap, int pageIndex, int flags){
+        if(pageIndex < 0 || pageIndex >= doc.getPageCount()) return false;
+        return renderPagesBitmap(doc, new int[]{ pageIndex }, new Bitmap[]{ bitmap }, null, flags)[0];
+    }
+
+    /** Statistics of the FPDF_BITMAP handles pooled by the native side for every kind of render */
+    public static BitmapPoolStats getBitmapPoolStats(){
+        long[] stats = nativeGetBitmapPoolStats();
+        if(stats == null) return new BitmapPoolStats(0, 0, 0, 0);
+        return new BitmapPoolStats(stats[0], stats[1], stats[2], stats[3]);
+    }
+
     public void closeDocument(PdfDocument doc){
         synchronized (doc.Lock){
-            for(Integer index : doc.mNativePagesPtr.keySet()){
-                nativeClosePage(doc.mNativePagesPtr.get(index));
+            PageHandleTable textPages = doc.mNativeTextPagesPtr;
+            for(int i = 0; i < textPages.size(); i++){
+                nativeCloseTextPage(textPages.get(textPages.loadedPageAt(i)));
+            }
+            textPages.clear();
+
+            PageHandleTable pages = doc.mNativePagesPtr;
+            for(int i = 0; i < pages.size(); i++){
+                closeNativePage(pages.get(pages.loadedPageAt(i)));
+            }
+            pages.clear();
+
+            if(doc.mNativeDocPtr != -1){
+                nativeCloseDocument(doc.mNativeDocPtr);
             }
-            doc.mNativePagesPtr.clear();
+            //Bookmark handles die with the document
+            doc.mOutline = null;
+            doc.mPageLinks = new PageLinks[0];
 
-            nativeCloseDocument(doc.mNativeDocPtr);
+            //Renders still queued on other threads must not touch the freed document
+            doc.mNativeDocPtr = -1;
         }
     }
 }
@@ -0,0 +1,265 @@
+package com.shockwave.pdfium;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings and counters of the render pipeline, process wide, for telemetry:
+ * document open, page load (FPDF_LoadPage), rasterization, window lock, worker queues,
+ * render cache and open native pages.
+ * <p/>
+ * Off by default. While off, a probe is a read of a volatile flag; the open page count is
+ * kept anyway, it is needed to be right once enabled. Counters are atomics and histograms
+ * have fixed buckets, so recording never locks nor allocates.
+ * Take a {@link #snapshot()} to read them.
+ */
+public final class PdfiumMetrics {
+    /** Buckets of a histogram: bucket i holds values in [2^(i-1), 2^i), the last one the rest */
+    public static final int HISTOGRAM_BUCKETS = 40;
+
+    private static volatile boolean sEnabled = false;
+
+    /*package*/ static final Histogram sOpen = new Histogram();
+    /*package*/ static final Histogram sPageLoad = new Histogram();
+    /*package*/ static final Histogram sRender = new Histogram();
+    /*package*/ static final Histogram sWindowLock = new Histogram();
+    /*package*/ static final Histogram sQueueWait = new Histogram();
+    /*package*/ static final Histogram sQueueDepth = new Histogram();
+    private static final AtomicLong sRenderedPixels = new AtomicLong();
+    private static final AtomicLong sCacheHits = new AtomicLong();
+    private static final AtomicLong sCacheMisses = new AtomicLong();
+    private static final AtomicInteger sOpenPages = new AtomicInteger();
+
+    private PdfiumMetrics(){}
+
+    public static void setEnabled(boolean enabled){
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled(){
+        return sEnabled;
+    }
+
+    /** Clear what was recorded, e.g. after shipping a snapshot. The open page count stays. */
+    public static void reset(){
+        sOpen.reset();
+        sPageLoad.reset();
+        sRender.reset();
+        sWindowLock.reset();
+        sQueueWait.reset();
+        sQueueDepth.reset();
+        sRenderedPixels.set(0);
+        sCacheHits.set(0);
+        sCacheMisses.set(0);
+    }
+
+    public static Snapshot snapshot(){
+        return new Snapshot(sOpen.snapshot(), sPageLoad.snapshot(), sRender.snapshot(),
+                sWindowLock.snapshot(), sQueueWait.snapshot(), sQueueDepth.snapshot(),
+                sRenderedPixels.get(), sCacheHits.get(), sCacheMisses.get(), sOpenPages.get());
+    }
+
+    /** @return the start of a timed stage, 0 when disabled, to pass to {@link Histogram#recordSince} */
+    /*package*/ static long start(){
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    /*package*/ static void recordRender(long start, long pixels){
+        if(start == 0) return;
+        sRender.recordSince(start);
+        if(pixels > 0) sRenderedPixels.addAndGet(pixels);
+    }
+
+    /** @return the pixels of a page drawn at (x, y) with size drawWidth x drawHeight, inside a canvas */
+    /*package*/ static long drawnPixels(int canvasWidth, int canvasHeight, int x, int y,
+                                        int drawWidth, int drawHeight){
+        long width = Math.min(canvasWidth, x + drawWidth) - Math.max(0, x);
+        long height = Math.min(canvasHeight, y + drawHeight) - Math.max(0, y);
+        return (width > 0 && height > 0) ? width * height : 0;
+    }
+
+    /*package*/ static void recordCacheLookup(boolean hit){
+        if(!sEnabled) return;
+        (hit ? sCacheHits : sCacheMisses).incrementAndGet();
+    }
+
+    /*package*/ static void pagesOpened(int count){
+        sOpenPages.addAndGet(count);
+    }
+
+    /*package*/ static void pagesClosed(int count){
+        sOpenPages.addAndGet(-count);
+    }
+
+    /** Log2 histogram, lock free */
+    /*package*/ static final class Histogram {
+        private final AtomicLongArray mBuckets = new AtomicLongArray(HISTOGRAM_BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        void record(long value){
+            if(!sEnabled) return;
+            if(value < 0) value = 0;
+            int bucket = Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+            mBuckets.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+            long max;
+            while(value > (max = mMax.get()) && !mMax.compareAndSet(max, value));
+        }
+
+        /** Record the nanoseconds elapsed since start, unless start is 0 */
+        void recordSince(long start){
+            if(start != 0) record(System.nanoTime() - start);
+        }
+
+        void reset(){
+            for(int i = 0; i < HISTOGRAM_BUCKETS; i++) mBuckets.set(i, 0);
+            mCount.set(0);
+            mSum.set(0);
+            mMax.set(0);
+        }
+
+        HistogramSnapshot snapshot(){
+            long[] buckets = new long[HISTOGRAM_BUCKETS];
+            for(int i = 0; i < HISTOGRAM_BUCKETS; i++) buckets[i] = mBuckets.get(i);
+            return new HistogramSnapshot(mCount.get(), mSum.get(), mMax.get(), buckets);
+        }
+    }
+
+    /**
+     * Values recorded by a histogram: nanoseconds for timings, a queue length for depths.
+     * Read while recording goes on, so the fields may be off by the values being recorded.
+     */
+    public static final class HistogramSnapshot {
+        public final long count;
+        public final long sum;
+        public final long max;
+        /** Bucket i counts the values in [2^(i-1), 2^i), bucket 0 the zeros */
+        public final long[] buckets;
+
+        HistogramSnapshot(long count, long sum, long max, long[] buckets){
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+            this.buckets = buckets;
+        }
+
+        public long mean(){
+            return count > 0 ? sum / count : 0;
+        }
+
+        /**
+         * @param fraction e.g. 0.95
+         * @return upper bound of the bucket holding that fraction of the values, at most max
+         */
+        public long percentile(double fraction){
+            long rank = (long)Math.ceil(fraction * count);
+            long seen = 0;
+            for(int i = 0; i < buckets.length; i++){
+                seen += buckets[i];
+                if(seen >= rank && seen > 0){
+                    long upper = i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                    return Math.min(upper, max);
+                }
+            }
+            return max;
+        }
+
+        void appendJson(StringBuilder out){
+            out.append("{\"count\":").append(count)
+               .append(",\"sum\":").append(sum)
+               .append(",\"max\":").append(max)
+               .append(",\"p50\":").append(percentile(0.5))
+               .append(",\"p95\":").append(percentile(0.95))
+               .append(",\"buckets\":[");
+            int last = buckets.length - 1;
+            while(last > 0 && buckets[last] == 0) last--;
+            for(int i = 0; i <= last; i++){
+                if(i > 0) out.append(',');
+                out.append(buckets[i]);
+            }
+            out.append("]}");
+        }
+    }
+
+    /** Everything recorded since the start or the last {@link #reset()} */
+    public static final class Snapshot {
+        /** Opening a document, parsing included */
+        public final HistogramSnapshot open;
+        /** FPDF_LoadPage of the pages kept open */
+        public final HistogramSnapshot pageLoad;
+        /** Rasterization of a render call, page load excluded */
+        public final HistogramSnapshot render;
+        /** Wait for the buffer of a window, renders to a Surface only */
+        public final HistogramSnapshot windowLock;
+        /** Time a task waited in a worker queue before it ran */
+        public final HistogramSnapshot queueWait;
+        /** Tasks ahead in its queue when a task was submitted */
+        public final HistogramSnapshot queueDepth;
+        /** Pixels of the page drawn by the timed renders */
+        public final long renderedPixels;
+        public final long cacheHits;
+        public final long cacheMisses;
+        /** Native pages open right now, in every document */
+        public final int openPages;
+
+        Snapshot(HistogramSnapshot open, HistogramSnapshot pageLoad, HistogramSnapshot render,
+                 HistogramSnapshot windowLock, HistogramSnapshot queueWait,
+                 HistogramSnapshot queueDepth, long renderedPixels, long cacheHits,
+                 long cacheMisses, int openPages){
+            this.open = open;
+            this.pageLoad = pageLoad;
+            this.render = render;
+            this.windowLock = windowLock;
+            this.queueWait = queueWait;
+            this.queueDepth = queueDepth;
+            this.renderedPixels = renderedPixels;
+            this.cacheHits = cacheHits;
+            this.cacheMisses = cacheMisses;
+            this.openPages = openPages;
+        }
+
+        public double renderNanosPerPixel(){
+            return renderedPixels > 0 ? (double)render.sum / renderedPixels : 0;
+        }
+
+        /** @return hits out of the lookups of the render caches, 0 without lookups */
+        public double cacheHitRate(){
+            long lookups = cacheHits + cacheMisses;
+            return lookups > 0 ? (double)cacheHits / lookups : 0;
+        }
+
+        /** @return the snapshot as a JSON object, timings in nanoseconds */
+        public String toJson(){
+            StringBuilder out = new StringBuilder(1024);
+            out.append("{\"open\":");
+            open.appendJson(out);
+            out.append(",\"pageLoad\":");
+            pageLoad.appendJson(out);
+            out.append(",\"render\":");
+            render.appendJson(out);
+            out.append(",\"windowLock\":");
+            windowLock.appendJson(out);
+            out.append(",\"queueWait\":");
+            queueWait.appendJson(out);
+            out.append(",\"queueDepth\":");
+            queueDepth.appendJson(out);
+            out.append(",\"renderedPixels\":").append(renderedPixels)
+               .append(",\"cacheHits\":").append(cacheHits)
+               .append(",\"cacheMisses\":").append(cacheMisses)
+               .append(",\"openPages\":").append(openPages)
+               .append('}');
+            return out.toString();
+        }
+
+        @Override
+        public String toString(){
+            return "PdfiumMetrics{opens=" + open.count + ", pageLoads=" + pageLoad.count
+                    + ", renders=" + render.count + ", nsPerPixel=" + renderNanosPerPixel()
+                    + ", cacheHitRate=" + cacheHitRate() + ", openPages=" + openPages + "}";
+        }
+    }
+}
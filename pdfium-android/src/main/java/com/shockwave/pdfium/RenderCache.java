@@ -0,0 +1,187 @@
+package com.shockwave.pdfium;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+import static com.shockwave.pdfium.util.Constants.*;
+
+/**
+ * Memory-bounded LRU cache of rendered bitmaps, holding both whole pages rendered
+ * at fit zoom and zoomed tiles. The budget is in bytes; least recently used
+ * bitmaps are evicted first when it is exceeded.
+ */
+public class RenderCache {
+    private static final String TAG = RenderCache.class.getName();
+
+    private final LruCache<Key, Bitmap> mCache;
+    private final int mMaxBytes;
+    private final BitmapPool mBitmapPool = new BitmapPool(BITMAP_POOL_MAX_BYTES);
+    /** Evicted bitmaps another thread may still draw, pooled by releaseEvicted(). Guarded by itself */
+    private final ArrayList<Bitmap> mEvicted = new ArrayList<Bitmap>();
+
+    public RenderCache(int maxBytes){
+        mMaxBytes = maxBytes;
+        mCache = new LruCache<Key, Bitmap>(maxBytes){
+            @Override
+            protected int sizeOf(Key key, Bitmap value){
+                return value.getRowBytes() * value.getHeight();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Key key, Bitmap oldValue, Bitmap newValue){
+                //Replaced entries may still be drawn by their owner, only evicted ones are reused
+                if(evicted){
+                    synchronized(mEvicted){ mEvicted.add(oldValue); }
+                }
+            }
+        };
+    }
+
+    /** Default budget: an eighth of the heap the VM is allowed to use */
+    public static int defaultMaxBytes(){
+        return (int)Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    /** Lookup of a bitmap about to be rendered on a miss, counted in {@link PdfiumMetrics} */
+    /*package*/ Bitmap get(Key key){
+        Bitmap bitmap = mCache.get(key);
+        PdfiumMetrics.recordCacheLookup(bitmap != null);
+        return bitmap;
+    }
+
+    /** Lookup that never renders, e.g. to check what is cached or draw a preview: not counted */
+    /*package*/ Bitmap peek(Key key){
+        return mCache.get(key);
+    }
+
+    /*package*/ void put(Key key, Bitmap bitmap){
+        mCache.put(key, bitmap);
+    }
+
+    /**
+     * Hand the bitmaps evicted so far to the pool, for renders to reuse. Call only once nothing
+     * can draw them anymore: after the frames that held them are posted, with no preview
+     * drawing concurrently.
+     */
+    /*package*/ void releaseEvicted(){
+        synchronized(mEvicted){
+            for(int i = 0; i < mEvicted.size(); i++){
+                mBitmapPool.release(mEvicted.get(i));
+            }
+            mEvicted.clear();
+        }
+    }
+
+    /** @return an evicted bitmap of this size to render into, or null */
+    /*package*/ Bitmap obtainBitmap(int width, int height){
+        return mBitmapPool.obtain(width, height);
+    }
+
+    /** Renders that could reuse an evicted bitmap */
+    public long getBitmapReuseCount(){
+        return mBitmapPool.getHits();
+    }
+
+    /** Renders that had to allocate a bitmap */
+    public long getBitmapAllocationCount(){
+        return mBitmapPool.getMisses();
+    }
+
+    public int getMaxBytes(){
+        return mMaxBytes;
+    }
+
+    public int getSizeBytes(){
+        return mCache.size();
+    }
+
+    /**
+     * Release memory according to a {@link ComponentCallbacks2} trim level: half of the cache
+     * when running low, all of it from TRIM_MEMORY_RUNNING_CRITICAL on, which also covers
+     * the app being in the background.
+     * Forward the calls of Activity/Application#onTrimMemory here.
+     */
+    public void trimMemory(int level){
+        if (DEBUG_MODE) Log.d(TAG, "Trim memory, level: " + level);
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL){
+            mCache.evictAll();
+            clearPools();
+        }else if(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW){
+            mCache.trimToSize(mMaxBytes / 2);
+            clearPools();
+        }
+    }
+
+    public void clear(){
+        mCache.evictAll();
+        clearPools();
+    }
+
+    /** Bitmaps still drawn by a frame stay referenced there, they are only not reused */
+    private void clearPools(){
+        synchronized(mEvicted){ mEvicted.clear(); }
+        mBitmapPool.clear();
+    }
+
+    /**
+     * Identifies a rendered bitmap. Tiles are keyed by (page, zoom bucket, column, row) and
+     * the size of the whole page rendered at that bucket; whole pages use {@link #FULL_PAGE}
+     * as bucket. The size changes with the fit size of the page, so a rotated or resized
+     * surface doesn't reuse a stale bitmap.
+     */
+    static final class Key {
+        static final int FULL_PAGE = Integer.MIN_VALUE;
+
+        final int pageIndex;
+        final int zoomBucket;
+        final int column;
+        final int row;
+        final int renderWidth;
+        final int renderHeight;
+
+        Key(int pageIndex, int zoomBucket, int column, int row, int renderWidth, int renderHeight){
+            this.pageIndex = pageIndex;
+            this.zoomBucket = zoomBucket;
+            this.column = column;
+            this.row = row;
+            this.renderWidth = renderWidth;
+            this.renderHeight = renderHeight;
+        }
+
+        static Key page(int pageIndex, int width, int height){
+            return new Key(pageIndex, FULL_PAGE, 0, 0, width, height);
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(this == o) return true;
+            if(!(o instanceof Key)) return false;
+            Key other = (Key)o;
+            return pageIndex == other.pageIndex && zoomBucket == other.zoomBucket
+                    && column == other.column && row == other.row
+                    && renderWidth == other.renderWidth && renderHeight == other.renderHeight;
+        }
+
+        @Override
+        public int hashCode(){
+            int result = pageIndex;
+            result = 31 * result + zoomBucket;
+            result = 31 * result + column;
+            result = 31 * result + row;
+            result = 31 * result + renderWidth;
+            result = 31 * result + renderHeight;
+            return result;
+        }
+
+        @Override
+        public String toString(){
+            return "Key{page=" + pageIndex + ", bucket=" + zoomBucket
+                    + ", col=" + column + ", row=" + row
+                    + ", size=" + renderWidth + "x" + renderHeight + "}";
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.shockwave.pdfium;
+
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
+
+import com.shockwave.pdfium.util.PageLayout;
+
+import java.util.concurrent.Executor;
+
+import static com.shockwave.pdfium.util.Constants.*;
+
+/**
+ * Coalesces render requests into at most one render per frame.
+ * <p/>
+ * Only the latest requested state is kept: requests made before the next vsync
+ * replace each other (coalesced), and a request made while a frame is rendering
+ * aborts that frame (dropped) so the worker moves on to the latest state.
+ * All rendering runs on the worker, requests come from the UI thread.
+ */
+class RenderScheduler {
+    private static final String TAG = RenderScheduler.class.getName();
+
+    /** Frame interval used where Choreographer isn't available (API < 16) */
+    private static final long FALLBACK_FRAME_INTERVAL_MS = 16;
+
+    interface Renderer {
+        /**
+         * Called on the worker thread.
+         * @return false if the frame was not rendered
+         */
+        boolean renderFrame(RenderState state, CancellationSignal signal);
+    }
+
+    /**
+     * What a frame shows: either the single page pageIndex at pageRect,
+     * or in continuous scroll the pages of layout visible at zoom and scroll position.
+     */
+    static final class RenderState {
+        /** Current page, the one kept open */
+        int pageIndex;
+        final Rect pageRect = new Rect();
+        final Rect screenRect = new Rect();
+        int fitWidth;
+        int fitHeight;
+        boolean zoomed;
+        /** SystemClock.uptimeMillis() of the request */
+        long requestTime;
+
+        /** Continuous scroll layout, null when showing a single page */
+        PageLayout layout;
+        float zoom;
+        /** Scroll position, in pixels at zoom */
+        float scrollX;
+        float scrollY;
+
+        void set(RenderState other){
+            pageIndex = other.pageIndex;
+            pageRect.set(other.pageRect);
+            screenRect.set(other.screenRect);
+            fitWidth = other.fitWidth;
+            fitHeight = other.fitHeight;
+            zoomed = other.zoomed;
+            requestTime = other.requestTime;
+            layout = other.layout;
+            zoom = other.zoom;
+            scrollX = other.scrollX;
+            scrollY = other.scrollY;
+        }
+
+        int firstVisiblePage(){
+            return layout == null ? pageIndex : layout.firstVisiblePage(scrollY / zoom);
+        }
+
+        /** @return the last visible page, less than firstVisiblePage() if none */
+        int lastVisiblePage(){
+            return layout == null ? pageIndex : layout.lastVisiblePage((scrollY + screenRect.height()) / zoom);
+        }
+
+        /** Position of a visible page on screen */
+        void getPageRect(int index, Rect outRect){
+            if(layout == null){
+                outRect.set(pageRect);
+                return;
+            }
+            int left = Math.round(-scrollX);
+            int top = Math.round(layout.getPageTop(index) * zoom - scrollY);
+            outRect.set(left, top,
+                    left + Math.round(layout.getWidth() * zoom),
+                    top + Math.round(layout.getPageHeight(index) * zoom));
+        }
+
+        /** Size of a visible page at zoom 1 */
+        int getFitWidth(int index){
+            return layout == null ? fitWidth : layout.getWidth();
+        }
+
+        int getFitHeight(int index){
+            return layout == null ? fitHeight : layout.getPageHeight(index);
+        }
+    }
+
+    private final Executor mWorker;
+    private final Renderer mRenderer;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    //Guarded by this
+    private final RenderState mPending = new RenderState();
+    private final RenderState mRendering = new RenderState();
+    private boolean mHasPending = false;
+    private boolean mFrameScheduled = false;
+    private boolean mBusy = false;
+    private CancellationSignal mInFlightSignal = null;
+
+    private long mRequestedFrames = 0;
+    private long mRenderedFrames = 0;
+    private long mCoalescedFrames = 0;
+    private long mDroppedFrames = 0;
+
+    private final Runnable mFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onFrame();
+        }
+    };
+
+    private final Runnable mRenderTask = new Runnable() {
+        @Override
+        public void run() {
+            renderPending();
+        }
+    };
+
+    private final Runnable mScheduleFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (RenderScheduler.this) {
+                scheduleFrame();
+            }
+        }
+    };
+
+    private final VsyncCallback mVsyncCallback;
+
+    RenderScheduler(Executor worker, Renderer renderer){
+        mWorker = worker;
+        mRenderer = renderer;
+        mVsyncCallback = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                ? new VsyncCallback(mFrameRunnable) : null;
+    }
+
+    /** Ask for the given state to be rendered. Call on the UI thread. */
+    synchronized void request(RenderState state){
+        mRequestedFrames++;
+        if(mHasPending) mCoalescedFrames++;
+        mPending.set(state);
+        mHasPending = true;
+
+        //Whatever is rendering now is already stale
+        if(mInFlightSignal != null) mInFlightSignal.cancel();
+
+        scheduleFrame();
+    }
+
+    /** Forget the pending state and abort the frame being rendered */
+    synchronized void cancel(){
+        mHasPending = false;
+        if(mInFlightSignal != null) mInFlightSignal.cancel();
+    }
+
+    private void scheduleFrame(){
+        if(mFrameScheduled) return;
+        mFrameScheduled = true;
+        if(mVsyncCallback != null){
+            mVsyncCallback.post();
+        }else{
+            mMainHandler.postDelayed(mFrameRunnable, FALLBACK_FRAME_INTERVAL_MS);
+        }
+    }
+
+    private synchronized void onFrame(){
+        mFrameScheduled = false;
+        //A busy worker picks the pending state up when it is done
+        if(!mHasPending || mBusy) return;
+
+        mBusy = true;
+        mWorker.execute(mRenderTask);
+    }
+
+    private void renderPending(){
+        CancellationSignal signal = new CancellationSignal();
+        synchronized (this){
+            if(!mHasPending){
+                mBusy = false;
+                return;
+            }
+            mRendering.set(mPending);
+            mHasPending = false;
+            mInFlightSignal = signal;
+        }
+
+        boolean rendered = false;
+        try{
+            rendered = mRenderer.renderFrame(mRendering, signal);
+        }catch(RuntimeException e){
+            Log.e(TAG, "Render failed", e);
+        }
+
+        synchronized (this){
+            mInFlightSignal = null;
+            mBusy = false;
+            if(rendered){
+                mRenderedFrames++;
+            }else if(signal.isCanceled()){
+                mDroppedFrames++;
+                if (DEBUG_MODE) Log.d(TAG, "Frame dropped, page " + mRendering.pageIndex);
+            }
+            if(mHasPending){
+                mMainHandler.post(mScheduleFrameRunnable);
+            }
+        }
+    }
+
+    synchronized long getRequestedFrames(){ return mRequestedFrames; }
+    synchronized long getRenderedFrames(){ return mRenderedFrames; }
+    synchronized long getCoalescedFrames(){ return mCoalescedFrames; }
+    synchronized long getDroppedFrames(){ return mDroppedFrames; }
+
+    /** Kept apart so Choreographer is only loaded on API 16+ */
+    private static final class VsyncCallback implements Choreographer.FrameCallback {
+        private final Runnable mFrame;
+
+        VsyncCallback(Runnable frame){
+            mFrame = frame;
+        }
+
+        void post(){
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos){
+            mFrame.run();
+        }
+    }
+}
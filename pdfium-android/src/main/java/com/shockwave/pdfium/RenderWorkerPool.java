@@ -0,0 +1,146 @@
+package com.shockwave.pdfium;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.shockwave.pdfium.util.Constants.*;
+
+/**
+ * Worker threads shared by every {@link PdfView}, instead of each view owning its own threads.
+ * <p/>
+ * Work is submitted through serial queues: a queue runs its tasks one at a time and
+ * in order, but different queues run in parallel on the pool. A view uses one queue
+ * per kind of work on its document.
+ * <p/>
+ * pdfium isn't thread safe, even across documents, so every call into it is serialized by a
+ * single library lock (see the threading notes in mainJNILib.cpp): only one worker renders at
+ * a time. What runs in parallel is the Java side of the work, e.g. a view compositing its
+ * frame from the render cache while another document renders.
+ * A pool of a single thread serializes that too.
+ */
+public class RenderWorkerPool {
+    private static final String TAG = RenderWorkerPool.class.getName();
+
+    /** Idle workers are stopped after this delay */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static RenderWorkerPool sDefault = null;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * @param threadCount worker threads, the number of queues running a task at the same time
+     */
+    public RenderWorkerPool(int threadCount){
+        if(threadCount < 1) throw new IllegalArgumentException("Thread count: " + threadCount);
+        mExecutor = new ThreadPoolExecutor(threadCount, threadCount,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new WorkerFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Pool the views render on, with a thread per core unless replaced */
+    public static synchronized RenderWorkerPool getDefault(){
+        if(sDefault == null){
+            sDefault = new RenderWorkerPool(Runtime.getRuntime().availableProcessors());
+        }
+        return sDefault;
+    }
+
+    /**
+     * Replace the pool used by views created from now on,
+     * e.g. by a pool of one thread to serialize all rendering.
+     */
+    public static synchronized void setDefault(RenderWorkerPool pool){
+        sDefault = pool;
+    }
+
+    public int getThreadCount(){
+        return mExecutor.getMaximumPoolSize();
+    }
+
+    /** @return a new queue running its tasks one at a time, in submission order, on this pool */
+    public Executor newSerialQueue(){
+        return new SerialQueue(mExecutor);
+    }
+
+    /** Run a task on the pool, in no particular order with other tasks */
+    public void execute(final Runnable task){
+        if(!PdfiumMetrics.isEnabled()){
+            mExecutor.execute(task);
+            return;
+        }
+        PdfiumMetrics.sQueueDepth.record(mExecutor.getQueue().size());
+        final long submitted = System.nanoTime();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                PdfiumMetrics.sQueueWait.recordSince(submitted);
+                task.run();
+            }
+        });
+    }
+
+    /** Stop the workers once the queued tasks are done; the pool can't be used afterwards */
+    public void shutdown(){
+        mExecutor.shutdown();
+    }
+
+    private static final class SerialQueue implements Executor {
+        private final Executor mExecutor;
+        //Guarded by this
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<Runnable>();
+        private Runnable mActive = null;
+
+        SerialQueue(Executor executor){
+            mExecutor = executor;
+        }
+
+        @Override
+        public synchronized void execute(final Runnable task){
+            final long submitted = PdfiumMetrics.start();
+            if(submitted != 0) PdfiumMetrics.sQueueDepth.record(mTasks.size() + (mActive != null ? 1 : 0));
+            mTasks.offer(new Runnable() {
+                @Override
+                public void run() {
+                    PdfiumMetrics.sQueueWait.recordSince(submitted);
+                    try{
+                        task.run();
+                    }catch(RuntimeException e){
+                        Log.e(TAG, "Render task failed", e);
+                    }finally{
+                        scheduleNext();
+                    }
+                }
+            });
+            if(mActive == null){
+                scheduleNext();
+            }
+        }
+
+        private synchronized void scheduleNext(){
+            if((mActive = mTasks.poll()) != null){
+                mExecutor.execute(mActive);
+            }
+        }
+    }
+
+    private static final class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r){
+            Thread thread = new Thread(r, "PdfRender #" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            if (DEBUG_MODE) Log.d(TAG, "Start " + thread.getName());
+            return thread;
+        }
+    }
+}
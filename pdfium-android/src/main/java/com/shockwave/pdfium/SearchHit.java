@@ -0,0 +1,30 @@
+package com.shockwave.pdfium;
+
+/**
+ * An occurrence of the searched text, see {@link DocumentSearch}.
+ * Character indices are those of the text methods of {@link PdfiumCore}.
+ */
+public class SearchHit {
+    public final int pageIndex;
+    /** Index of the first character of the hit */
+    public final int start;
+    /** Number of characters of the hit */
+    public final int count;
+    /**
+     * Rectangles covering the hit, one per line: left, top, right, bottom of each, in page
+     * points with the origin at the bottom left
+     */
+    public final float[] rects;
+
+    SearchHit(int pageIndex, int start, int count, float[] rects){
+        this.pageIndex = pageIndex;
+        this.start = start;
+        this.count = count;
+        this.rects = rects;
+    }
+
+    @Override
+    public String toString(){
+        return "SearchHit{page=" + pageIndex + ", start=" + start + ", count=" + count + "}";
+    }
+}
@@ -0,0 +1,169 @@
+package com.shockwave.pdfium;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index of a document: for each word, the pages containing it. Used by
+ * {@link DocumentSearch} to only search the pages that may contain the query.
+ * <p/>
+ * Words are lower case runs of letters and digits. A page may contain the query only if
+ * each word of the query is part of a word of the page, so the candidates never miss a
+ * page and pdfium's search on them decides. Pages are indexed as they are first searched;
+ * pages not indexed yet are always candidates.
+ * Not thread safe, used on the search thread only.
+ */
+class SearchIndex {
+    private static final int FILE_VERSION = 1;
+
+    private final int mPageCount;
+    private final BitSet mIndexedPages;
+    private final Map<String, PageList> mWords = new HashMap<String, PageList>();
+
+    SearchIndex(int pageCount){
+        mPageCount = pageCount;
+        mIndexedPages = new BitSet(pageCount);
+    }
+
+    int getPageCount(){
+        return mPageCount;
+    }
+
+    boolean isIndexed(int pageIndex){
+        return mIndexedPages.get(pageIndex);
+    }
+
+    boolean isComplete(){
+        return mIndexedPages.cardinality() == mPageCount;
+    }
+
+    void addPage(int pageIndex, String text){
+        if(mIndexedPages.get(pageIndex)) return;
+        mIndexedPages.set(pageIndex);
+        Set<String> pageWords = new HashSet<String>();
+        for(String word : tokenize(text)){
+            if(!pageWords.add(word)) continue;
+            PageList pages = mWords.get(word);
+            if(pages == null){
+                pages = new PageList();
+                mWords.put(word, pages);
+            }
+            pages.add(pageIndex);
+        }
+    }
+
+    /** @return the pages that may contain query: indexed pages with all its words, and pages not indexed */
+    BitSet candidatePages(String query){
+        BitSet candidates = new BitSet(mPageCount);
+        candidates.set(0, mPageCount);
+        for(String token : tokenize(query)){
+            BitSet withToken = new BitSet(mPageCount);
+            for(Map.Entry<String, PageList> entry : mWords.entrySet()){
+                if(entry.getKey().contains(token)) entry.getValue().addTo(withToken);
+            }
+            candidates.and(withToken);
+        }
+        BitSet notIndexed = new BitSet(mPageCount);
+        notIndexed.set(0, mPageCount);
+        notIndexed.andNot(mIndexedPages);
+        candidates.or(notIndexed);
+        return candidates;
+    }
+
+    static String[] tokenize(String text){
+        if(text == null) return new String[0];
+        String lower = text.toLowerCase(Locale.US);
+        String[] tokens = new String[16];
+        int count = 0;
+        int start = -1;
+        for(int i = 0; i <= lower.length(); i++){
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if(wordChar && start < 0){
+                start = i;
+            }else if(!wordChar && start >= 0){
+                if(count == tokens.length) tokens = Arrays.copyOf(tokens, count * 2);
+                tokens[count++] = lower.substring(start, i);
+                start = -1;
+            }
+        }
+        return Arrays.copyOf(tokens, count);
+    }
+
+    /** Write a complete index; the file is written aside then renamed */
+    void write(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try{
+            out.writeInt(FILE_VERSION);
+            out.writeInt(mPageCount);
+            out.writeInt(mWords.size());
+            for(Map.Entry<String, PageList> entry : mWords.entrySet()){
+                PageList pages = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(pages.size);
+                for(int i = 0; i < pages.size; i++){
+                    out.writeInt(pages.pages[i]);
+                }
+            }
+        }finally{
+            out.close();
+        }
+        if(!temp.renameTo(file)){
+            temp.delete();
+            throw new IOException("Renaming " + temp + " failed");
+        }
+    }
+
+    /** @return the complete index of a document of pageCount pages, null if the file doesn't match */
+    static SearchIndex read(File file, int pageCount) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try{
+            if(in.readInt() != FILE_VERSION || in.readInt() != pageCount) return null;
+            SearchIndex index = new SearchIndex(pageCount);
+            int wordCount = in.readInt();
+            for(int i = 0; i < wordCount; i++){
+                String word = in.readUTF();
+                PageList pages = new PageList();
+                int size = in.readInt();
+                for(int j = 0; j < size; j++){
+                    int page = in.readInt();
+                    if(page < 0 || page >= pageCount) return null;
+                    pages.add(page);
+                }
+                index.mWords.put(word, pages);
+            }
+            index.mIndexedPages.set(0, pageCount);
+            return index;
+        }finally{
+            in.close();
+        }
+    }
+
+    /** Pages of a word, without boxing */
+    private static final class PageList {
+        int[] pages = new int[4];
+        int size = 0;
+
+        void add(int page){
+            if(size == pages.length) pages = Arrays.copyOf(pages, size * 2);
+            pages[size++] = page;
+        }
+
+        void addTo(BitSet set){
+            for(int i = 0; i < size; i++) set.set(pages[i]);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.shockwave.pdfium;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Random access to a document that isn't a local file, e.g. a download or an encrypted
+ * store, read by pdfium through {@link PdfiumCore#newDocument(SeekableSource)} without
+ * copying it first.
+ * <p/>
+ * Calls come from whichever thread opens the document, or loads, renders or reads the text
+ * of its pages, with the library lock held that serializes every call into pdfium for all
+ * documents. So they are never concurrent, and:
+ * <ul>
+ * <li>a slow read stalls every document: back the source with local storage or memory,
+ * and fetch remote data before it is needed.</li>
+ * <li>a read must never call {@link PdfiumCore}, or wait on a thread that does:
+ * it would deadlock.</li>
+ * </ul>
+ */
+public interface SeekableSource {
+    /** @return the document size in bytes, fixed while the document is open */
+    long size() throws IOException;
+
+    /**
+     * Read bytes starting at position into the remaining part of buffer.
+     * The buffer wraps pdfium's memory: don't keep it after returning.
+     * @return the number of bytes read, at least 1 unless the end is reached
+     */
+    int read(long position, ByteBuffer buffer) throws IOException;
+}
@@ -0,0 +1,292 @@
+package com.shockwave.pdfium;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static com.shockwave.pdfium.util.Constants.*;
+
+/**
+ * Page thumbnails of a document, for a navigation strip.
+ * <p/>
+ * Thumbnails are rendered on a single low-priority thread shared by all loaders, through
+ * {@link PdfiumCore#renderThumbnail}, which doesn't keep pages open. Each render holds the
+ * document lock for one small page only, so the foreground render waits little.
+ * <p/>
+ * Results are kept in memory and written as PNG to a disk cache keyed by file hash, page and
+ * width, so reopening a document shows its thumbnails without rendering them again.
+ * The hash covers the file size and its first and last 64KB, to stay cheap on large files.
+ */
+public class ThumbnailLoader {
+    private static final String TAG = ThumbnailLoader.class.getName();
+
+    private static final String CACHE_DIR = "pdfium-thumbnails";
+    private static final int HASH_BLOCK_SIZE = 64 * 1024;
+
+    private static final ExecutorService sWorker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND
+                            + Process.THREAD_PRIORITY_LESS_FAVORABLE);
+                    r.run();
+                }
+            }, "PdfThumbnail");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public interface Callback {
+        /**
+         * Called on the UI thread
+         * @param bitmap the thumbnail, null if it couldn't be rendered
+         */
+        void onThumbnail(int pageIndex, Bitmap bitmap);
+    }
+
+    private final PdfiumCore mPdfCore;
+    private final PdfDocument mDocument;
+    private final FileDescriptor mFd;
+    private final File mCacheDir;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    /** Hash identifying the file in the disk cache, computed on the worker */
+    private String mFileKey = null;
+    /** Bumped by cancelAll(), requests of an older generation are dropped */
+    private volatile int mGeneration = 0;
+    private volatile boolean isReleased = false;
+
+    /**
+     * @param fd the file the document was opened from, only read to identify it;
+     *           null to keep thumbnails in memory only
+     */
+    public ThumbnailLoader(Context context, PdfiumCore core, PdfDocument document, FileDescriptor fd){
+        mPdfCore = core;
+        mDocument = document;
+        mFd = fd;
+        mCacheDir = new File(context.getCacheDir(), CACHE_DIR);
+        mMemoryCache = new LruCache<String, Bitmap>(THUMBNAIL_MEMORY_CACHE_BYTES){
+            @Override
+            protected int sizeOf(String key, Bitmap value){
+                return value.getRowBytes() * value.getHeight();
+            }
+        };
+        sWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                trimDiskCache(mCacheDir, THUMBNAIL_DISK_CACHE_BYTES);
+            }
+        });
+    }
+
+    /**
+     * Deliver the thumbnail of a page to the callback: from memory right away if possible,
+     * otherwise from the disk cache or a render on the thumbnail thread.
+     * @param width thumbnail width in pixels, the height follows the page ratio
+     */
+    public void load(final int pageIndex, final int width, final Callback callback){
+        if(isReleased || pageIndex < 0 || pageIndex >= mDocument.getPageCount() || width <= 0) return;
+
+        Bitmap cached = mMemoryCache.get(memoryKey(pageIndex, width));
+        if(cached != null){
+            callback.onThumbnail(pageIndex, cached);
+            return;
+        }
+
+        final int generation = mGeneration;
+        sWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(isReleased || generation != mGeneration) return;
+                final Bitmap bitmap = loadInBackground(pageIndex, width);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(!isReleased && generation == mGeneration){
+                            callback.onThumbnail(pageIndex, bitmap);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /** Drop the requests not started yet, e.g. when the strip scrolled away */
+    public void cancelAll(){
+        mGeneration++;
+    }
+
+    /** Stop loading and forget the thumbnails in memory. Call before closing the document. */
+    public void release(){
+        isReleased = true;
+        mMemoryCache.evictAll();
+    }
+
+    private Bitmap loadInBackground(int pageIndex, int width){
+        String memoryKey = memoryKey(pageIndex, width);
+        Bitmap bitmap = mMemoryCache.get(memoryKey);
+        if(bitmap != null) return bitmap;
+
+        File file = cacheFile(pageIndex, width);
+        if(file != null && file.exists()){
+            bitmap = BitmapFactory.decodeFile(file.getPath());
+            if(bitmap != null){
+                //Keep recently used thumbnails from being trimmed first
+                file.setLastModified(System.currentTimeMillis());
+                mMemoryCache.put(memoryKey, bitmap);
+                return bitmap;
+            }
+        }
+
+        float pageWidth = mDocument.getPageWidthPoint(pageIndex);
+        float pageHeight = mDocument.getPageHeightPoint(pageIndex);
+        if(pageWidth <= 0 || pageHeight <= 0) return null;
+        int height = Math.max(1, Math.round(width * pageHeight / pageWidth));
+
+        try{
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }catch(OutOfMemoryError e){
+            Log.e(TAG, "Not enough memory for a thumbnail");
+            mMemoryCache.evictAll();
+            return null;
+        }
+        if(!mPdfCore.renderThumbnail(mDocument, bitmap, pageIndex, 0)){
+            bitmap.recycle();
+            return null;
+        }
+        mMemoryCache.put(memoryKey, bitmap);
+        if(file != null) writeCacheFile(bitmap, file);
+        return bitmap;
+    }
+
+    private static String memoryKey(int pageIndex, int width){
+        return pageIndex + "_" + width;
+    }
+
+    /** @return null if the file can't be identified, thumbnails are then only kept in memory */
+    private File cacheFile(int pageIndex, int width){
+        if(mFd == null) return null;
+        if(mFileKey == null){
+            mFileKey = hashFile(mFd);
+            if(mFileKey == null) return null;
+        }
+        return new File(mCacheDir, mFileKey + "_" + pageIndex + "_" + width + ".png");
+    }
+
+    private static void writeCacheFile(Bitmap bitmap, File file){
+        File dir = file.getParentFile();
+        if(!dir.isDirectory() && !dir.mkdirs()) return;
+
+        //Written aside then renamed, so a reader never sees a partial file
+        File temp = new File(dir, file.getName() + ".tmp");
+        FileOutputStream out = null;
+        try{
+            out = new FileOutputStream(temp);
+            if(bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)){
+                out.close();
+                out = null;
+                if(!temp.renameTo(file)) temp.delete();
+            }
+        }catch(IOException e){
+            Log.w(TAG, "Writing thumbnail failed", e);
+        }finally{
+            if(out != null){
+                try{
+                    out.close();
+                }catch(IOException ignored){
+                }
+                temp.delete();
+            }
+        }
+    }
+
+    /** Hash of the file size and its first and last HASH_BLOCK_SIZE bytes */
+    static String hashFile(FileDescriptor fd){
+        FileChannel channel = new FileInputStream(fd).getChannel();
+        try{
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            long size = channel.size();
+            ByteBuffer sizeBytes = ByteBuffer.allocate(8);
+            sizeBytes.putLong(size);
+            digest.update(sizeBytes.array());
+
+            ByteBuffer block = ByteBuffer.allocate(HASH_BLOCK_SIZE);
+            //Positional reads leave the file position alone
+            hashBlock(channel, 0, block, digest);
+            if(size > HASH_BLOCK_SIZE){
+                hashBlock(channel, Math.max(HASH_BLOCK_SIZE, size - HASH_BLOCK_SIZE), block, digest);
+            }
+
+            StringBuilder sb = new StringBuilder();
+            for(byte b : digest.digest()){
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
+        }catch(IOException e){
+            Log.w(TAG, "Hashing file failed", e);
+            return null;
+        }catch(NoSuchAlgorithmException e){
+            Log.w(TAG, "Hashing file failed", e);
+            return null;
+        }
+        //The channel isn't closed: it would close the document's file descriptor
+    }
+
+    private static void hashBlock(FileChannel channel, long position, ByteBuffer block,
+                                  MessageDigest digest) throws IOException {
+        block.clear();
+        while(block.hasRemaining()){
+            if(channel.read(block, position + block.position()) <= 0) break;
+        }
+        digest.update(block.array(), 0, block.position());
+    }
+
+    /** Delete the least recently used thumbnails until the cache fits in maxBytes */
+    private static void trimDiskCache(File dir, long maxBytes){
+        File[] files = dir.listFiles();
+        if(files == null) return;
+
+        long total = 0;
+        for(File file : files){
+            total += file.length();
+        }
+        if(total <= maxBytes) return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for(int i = 0; i < files.length && total > maxBytes; i++){
+            long length = files[i].length();
+            if(files[i].delete()) total -= length;
+        }
+    }
+}
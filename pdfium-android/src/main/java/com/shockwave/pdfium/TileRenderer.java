@@ -0,0 +1,362 @@
+package com.shockwave.pdfium;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.Log;
+
+import java.util.HashMap;
+
+import static com.shockwave.pdfium.util.Constants.*;
+
+/**
+ * Renders a zoomed page as fixed-size tiles and composites them onto a canvas.
+ * Tiles are keyed by (page, zoom bucket, column, row) and render size, so panning only
+ * rasterizes the tiles that become visible, and zooming inside a bucket only rescales
+ * existing tiles.
+ * At fit zoom the page is rendered as a single bitmap. Both go through the {@link RenderCache}.
+ * <p/>
+ * Rendering is split in two: prepare*() rasterizes what is missing into the cache and can be
+ * cancelled, draw*() only composites what the prepare*() calls of the frame produced, so it
+ * never rasterizes while the surface is locked. Those bitmaps stay referenced until
+ * endFrame(), even if evicted meanwhile. Both run on the render worker, hence synchronized.
+ * <p/>
+ * drawPreview() is the exception: it is called on the UI thread during gestures, never
+ * rasterizes and only stretches what is already cached, so it has its own state and no lock.
+ */
+class TileRenderer {
+    private static final String TAG = TileRenderer.class.getName();
+
+    private final PdfiumCore mPdfCore;
+
+    /** Replaced by the render worker between frames, read by drawPreview() too */
+    private volatile RenderCache mRenderCache;
+    private int mRenderFlags = 0;
+
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mSrcRect = new Rect();
+    private final RectF mDstRect = new RectF();
+    private final TileGrid mGrid = new TileGrid();
+    /** Bitmaps prepared for the frame being rendered, until endFrame() */
+    private final HashMap<RenderCache.Key, Bitmap> mFrameBitmaps = new HashMap<RenderCache.Key, Bitmap>();
+
+    //Used by drawPreview() on the UI thread only
+    private final Paint mPreviewPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mPreviewSrcRect = new Rect();
+    private final RectF mPreviewDstRect = new RectF();
+    private final TileGrid mPreviewGrid = new TileGrid();
+    /** Zoom bucket of the last frame drawn, its tiles are the best preview while zooming */
+    private volatile int mDrawnBucket = RenderCache.Key.FULL_PAGE;
+
+    TileRenderer(PdfiumCore core, RenderCache cache){
+        mPdfCore = core;
+        mRenderCache = cache;
+    }
+
+    /** On the render worker, between frames */
+    synchronized void setRenderCache(RenderCache cache){
+        mRenderCache = cache;
+    }
+
+    /** @param flags PdfiumCore.RENDER_FLAG_* combination used for sharp renders */
+    synchronized void setRenderFlags(int flags){
+        mRenderFlags = flags;
+    }
+
+    /** Previews skip LCD text, the slowest flag that is invisible once downscaled */
+    private int previewFlags(){
+        return mRenderFlags & ~PdfiumCore.RENDER_FLAG_LCD_TEXT;
+    }
+
+    static int zoomBucket(float zoom){
+        return Math.round((float)(Math.log(zoom) / Math.log(2)) * ZOOM_BUCKETS_PER_OCTAVE);
+    }
+
+    static float bucketScale(int bucket){
+        return (float)Math.pow(2, bucket / (double)ZOOM_BUCKETS_PER_OCTAVE);
+    }
+
+    /**
+     * Rasterize the tiles needed for this viewport that aren't cached yet.
+     * @return false if cancelled before every tile was rendered
+     */
+    synchronized boolean prepareTiles(PdfDocument doc, int pageIndex,
+                                      Rect pageRect, int fitWidth, int fitHeight, Rect screenRect,
+                                      CancellationSignal signal){
+        if(!mGrid.compute(pageRect, fitWidth, fitHeight, screenRect)) return true;
+
+        for(int row = mGrid.firstRow; row <= mGrid.lastRow; row++){
+            for(int column = mGrid.firstColumn; column <= mGrid.lastColumn; column++){
+                if(getTile(doc, pageIndex, column, row, signal) == null
+                        && signal != null && signal.isCanceled()){
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Composite the tiles of this viewport prepared by prepareTiles().
+     * @return false if a tile is missing, e.g. its render failed: it is left blank
+     */
+    synchronized boolean draw(Canvas canvas, int pageIndex,
+                              Rect pageRect, int fitWidth, int fitHeight, Rect screenRect){
+        if(!mGrid.compute(pageRect, fitWidth, fitHeight, screenRect)) return true;
+
+        boolean complete = true;
+        for(int row = mGrid.firstRow; row <= mGrid.lastRow; row++){
+            for(int column = mGrid.firstColumn; column <= mGrid.lastColumn; column++){
+                Bitmap tile = mFrameBitmaps.get(tileKey(pageIndex, mGrid, column, row));
+                if(tile == null){
+                    complete = false;
+                    continue;
+                }
+                drawTile(canvas, tile, mGrid, pageRect, column, row, mSrcRect, mDstRect, mPaint);
+            }
+        }
+        mDrawnBucket = mGrid.bucket;
+        return complete;
+    }
+
+    private static RenderCache.Key tileKey(int pageIndex, TileGrid grid, int column, int row){
+        return new RenderCache.Key(pageIndex, grid.bucket, column, row, grid.renderWidth, grid.renderHeight);
+    }
+
+    private static void drawTile(Canvas canvas, Bitmap tile, TileGrid grid, Rect pageRect,
+                                 int column, int row, Rect src, RectF dst, Paint paint){
+        int tileLeft = column * TILE_SIZE;
+        int tileTop = row * TILE_SIZE;
+        int tileWidth = Math.min(TILE_SIZE, grid.renderWidth - tileLeft);
+        int tileHeight = Math.min(TILE_SIZE, grid.renderHeight - tileTop);
+
+        src.set(0, 0, tileWidth, tileHeight);
+        dst.set(pageRect.left + tileLeft * grid.ratioX,
+                pageRect.top + tileTop * grid.ratioY,
+                pageRect.left + (tileLeft + tileWidth) * grid.ratioX,
+                pageRect.top + (tileTop + tileHeight) * grid.ratioY);
+        canvas.drawBitmap(tile, src, dst, paint);
+    }
+
+    /**
+     * Rasterize the whole page at the size of pageRect if it isn't cached yet.
+     * @return false if cancelled
+     */
+    synchronized boolean preparePage(PdfDocument doc, int pageIndex, Rect pageRect,
+                                     CancellationSignal signal){
+        if(pageRect.width() <= 0 || pageRect.height() <= 0) return true;
+        return getPage(doc, pageIndex, pageRect.width(), pageRect.height(), mRenderFlags, signal) != null
+                || signal == null || !signal.isCanceled();
+    }
+
+    /** @return true if the page at the size of pageRect is cached, so preparePage() won't rasterize */
+    boolean isPageCached(int pageIndex, Rect pageRect){
+        return mRenderCache.peek(RenderCache.Key.page(pageIndex, pageRect.width(), pageRect.height())) != null;
+    }
+
+    /**
+     * Keep the page at the size of pageRect for drawPage() if it is cached, never rasterizing.
+     * @return false if it isn't cached
+     */
+    synchronized boolean prepareCachedPage(int pageIndex, Rect pageRect){
+        RenderCache.Key key = RenderCache.Key.page(pageIndex, pageRect.width(), pageRect.height());
+        Bitmap page = mRenderCache.peek(key);
+        if(page == null) return false;
+        mFrameBitmaps.put(key, page);
+        return true;
+    }
+
+    /**
+     * Rasterize the page at PREVIEW_RENDER_SCALE of pageRect, as a quick first pass shown
+     * while the sharp page renders.
+     * @return false if cancelled
+     */
+    synchronized boolean preparePreviewPage(PdfDocument doc, int pageIndex, Rect pageRect,
+                                            CancellationSignal signal){
+        int width = previewSize(pageRect.width());
+        int height = previewSize(pageRect.height());
+        if(width <= 0 || height <= 0) return true;
+        return getPage(doc, pageIndex, width, height, previewFlags(), signal) != null
+                || signal == null || !signal.isCanceled();
+    }
+
+    /**
+     * Stretch the preview made by preparePreviewPage() over pageRect.
+     * @return false if there is none
+     */
+    synchronized boolean drawPreviewPage(Canvas canvas, int pageIndex, Rect pageRect){
+        Bitmap page = mFrameBitmaps.get(RenderCache.Key.page(pageIndex,
+                previewSize(pageRect.width()), previewSize(pageRect.height())));
+        if(page == null) return false;
+        canvas.drawBitmap(page, null, pageRect, mPaint);
+        return true;
+    }
+
+    private static int previewSize(int size){
+        return Math.max(1, Math.round(size * PREVIEW_RENDER_SCALE));
+    }
+
+    /**
+     * Draw the whole page prepared by preparePage() or prepareCachedPage().
+     * @return false if it is missing, e.g. its render failed
+     */
+    synchronized boolean drawPage(Canvas canvas, int pageIndex, Rect pageRect){
+        if(pageRect.width() <= 0 || pageRect.height() <= 0) return true;
+
+        Bitmap page = mFrameBitmaps.get(RenderCache.Key.page(pageIndex, pageRect.width(), pageRect.height()));
+        if(page == null) return false;
+        canvas.drawBitmap(page, null, pageRect, mPaint);
+        mDrawnBucket = RenderCache.Key.FULL_PAGE;
+        return true;
+    }
+
+    /** Drop the bitmaps prepared for the frame, once it is posted or cancelled */
+    synchronized void endFrame(){
+        mFrameBitmaps.clear();
+    }
+
+    /**
+     * Stretch what is already cached for this page over pageRect: the page at fit zoom,
+     * then the tiles of the last drawn zoom bucket. Nothing is rasterized, so this is cheap
+     * enough for the UI thread and shows the content moving with the gesture until the
+     * sharp frame lands.
+     */
+    void drawPreview(Canvas canvas, int pageIndex, Rect pageRect,
+                        int fitWidth, int fitHeight, Rect screenRect){
+        if(fitWidth <= 0 || fitHeight <= 0 || pageRect.width() <= 0 || pageRect.height() <= 0) return;
+
+        Bitmap page = mRenderCache.peek(RenderCache.Key.page(pageIndex, fitWidth, fitHeight));
+        if(page != null){
+            canvas.drawBitmap(page, null, pageRect, mPreviewPaint);
+        }
+
+        int bucket = mDrawnBucket;
+        if(bucket != RenderCache.Key.FULL_PAGE
+                && mPreviewGrid.compute(bucket, pageRect, fitWidth, fitHeight, screenRect)){
+            for(int row = mPreviewGrid.firstRow; row <= mPreviewGrid.lastRow; row++){
+                for(int column = mPreviewGrid.firstColumn; column <= mPreviewGrid.lastColumn; column++){
+                    Bitmap tile = mRenderCache.peek(tileKey(pageIndex, mPreviewGrid, column, row));
+                    if(tile == null) continue;
+                    drawTile(canvas, tile, mPreviewGrid, pageRect, column, row,
+                            mPreviewSrcRect, mPreviewDstRect, mPreviewPaint);
+                }
+            }
+        }
+    }
+
+    private Bitmap getPage(PdfDocument doc, int pageIndex, int width, int height, int flags,
+                           CancellationSignal signal){
+        RenderCache.Key key = RenderCache.Key.page(pageIndex, width, height);
+        Bitmap page = mRenderCache.get(key);
+        if(page == null){
+            if (DEBUG_MODE) Log.d(TAG, "Render page: " + key);
+            page = createBitmap(width, height);
+            if(page == null) return null;
+            if(!render(doc, page, pageIndex, 0, 0, width, height, flags, signal)) return null;
+            mRenderCache.put(key, page);
+        }
+        mFrameBitmaps.put(key, page);
+        return page;
+    }
+
+    private Bitmap getTile(PdfDocument doc, int pageIndex, int column, int row,
+                           CancellationSignal signal){
+        RenderCache.Key key = tileKey(pageIndex, mGrid, column, row);
+        Bitmap tile = mRenderCache.get(key);
+        if(tile == null){
+            if (DEBUG_MODE) Log.d(TAG, "Render tile: " + key);
+            tile = createBitmap(TILE_SIZE, TILE_SIZE);
+            if(tile == null) return null;
+            if(!render(doc, tile, pageIndex,
+                    -column * TILE_SIZE, -row * TILE_SIZE,
+                    mGrid.renderWidth, mGrid.renderHeight, mRenderFlags, signal)){
+                return null;
+            }
+            mRenderCache.put(key, tile);
+        }
+        mFrameBitmaps.put(key, tile);
+        return tile;
+    }
+
+    /** @return false if cancelled or failed, the bitmap mustn't be cached then */
+    private boolean render(PdfDocument doc, Bitmap bitmap, int pageIndex,
+                           int startX, int startY, int drawSizeX, int drawSizeY,
+                           int flags, CancellationSignal signal){
+        if(signal == null){
+            return mPdfCore.renderPageBitmap(doc, bitmap, pageIndex, startX, startY, drawSizeX, drawSizeY, flags);
+        }
+        return mPdfCore.renderPageBitmap(doc, bitmap, pageIndex,
+                startX, startY, drawSizeX, drawSizeY, flags, signal);
+    }
+
+    /**
+     * Bitmaps come from the pool when possible. A reused bitmap isn't cleared: renders repaint
+     * all of it but the part of an edge tile past the page, which draw() never shows.
+     */
+    private Bitmap createBitmap(int width, int height){
+        Bitmap reused = mRenderCache.obtainBitmap(width, height);
+        if(reused != null) return reused;
+        try{
+            return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }catch(OutOfMemoryError e){
+            Log.e(TAG, "Not enough memory for a " + width + "x" + height + " bitmap");
+            mRenderCache.clear();
+            return null;
+        }
+    }
+
+    /** Tiles of a zoom bucket covering the visible part of a page */
+    private static final class TileGrid {
+        int bucket;
+        int renderWidth;
+        int renderHeight;
+        float ratioX;
+        float ratioY;
+        int firstColumn;
+        int lastColumn;
+        int firstRow;
+        int lastRow;
+
+        /** Use the zoom bucket matching the size of pageRect */
+        boolean compute(Rect pageRect, int fitWidth, int fitHeight, Rect screenRect){
+            if(fitWidth <= 0 || fitHeight <= 0 || pageRect.width() <= 0 || pageRect.height() <= 0) return false;
+            return compute(zoomBucket(pageRect.width() / (float)fitWidth),
+                    pageRect, fitWidth, fitHeight, screenRect);
+        }
+
+        /**
+         * @param pageRect   page position on screen at the current zoom
+         * @param fitWidth   page width at fit zoom (zoom == 1)
+         * @param fitHeight  page height at fit zoom (zoom == 1)
+         * @param screenRect visible area
+         * @return false if there is nothing to draw
+         */
+        boolean compute(int bucket, Rect pageRect, int fitWidth, int fitHeight, Rect screenRect){
+            if(fitWidth <= 0 || fitHeight <= 0 || pageRect.width() <= 0 || pageRect.height() <= 0) return false;
+
+            this.bucket = bucket;
+            float scale = bucketScale(bucket);
+            renderWidth = Math.round(fitWidth * scale);
+            renderHeight = Math.round(fitHeight * scale);
+            ratioX = pageRect.width() / (float)renderWidth;
+            ratioY = pageRect.height() / (float)renderHeight;
+
+            int columns = (renderWidth + TILE_SIZE - 1) / TILE_SIZE;
+            int rows = (renderHeight + TILE_SIZE - 1) / TILE_SIZE;
+
+            //Visible area in the coordinates of the page rendered at the bucket scale
+            float visibleLeft = (screenRect.left - pageRect.left) / ratioX;
+            float visibleTop = (screenRect.top - pageRect.top) / ratioY;
+            float visibleRight = (screenRect.right - pageRect.left) / ratioX;
+            float visibleBottom = (screenRect.bottom - pageRect.top) / ratioY;
+
+            firstColumn = Math.max(0, (int)Math.floor(visibleLeft / TILE_SIZE) - TILE_PREFETCH_MARGIN);
+            lastColumn = Math.min(columns - 1, (int)Math.floor(visibleRight / TILE_SIZE) + TILE_PREFETCH_MARGIN);
+            firstRow = Math.max(0, (int)Math.floor(visibleTop / TILE_SIZE) - TILE_PREFETCH_MARGIN);
+            lastRow = Math.min(rows - 1, (int)Math.floor(visibleBottom / TILE_SIZE) + TILE_PREFETCH_MARGIN);
+            return true;
+        }
+    }
+}
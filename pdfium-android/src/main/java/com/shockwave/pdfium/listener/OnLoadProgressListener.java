@@ -0,0 +1,21 @@
+package com.shockwave.pdfium.listener;
+
+/**
+ * Implement this interface to follow a document being opened in the background,
+ * in addition to its completion or failure. All calls are made on the UI thread,
+ * none once the load was cancelled.
+ */
+public interface OnLoadProgressListener extends OnLoadCompleteListener, OnErrorOccurredListener {
+
+    /** Opening the file or content URI */
+    int STEP_OPEN_FILE = 0;
+    /** Parsing the document and reading its page sizes, the longest step on large files */
+    int STEP_READ_DOCUMENT = 1;
+    int STEP_COUNT = 2;
+
+    /**
+     * Called when a loading step starts
+     * @param step one of the STEP_* constants
+     */
+    void loadProgress(int step, int stepCount);
+}
@@ -0,0 +1,18 @@
+package com.shockwave.pdfium.listener;
+
+/**
+ * Implements this interface to know how long the user waited for a page.
+ * Called on the render thread, keep it short.
+ */
+public interface OnRenderTimeListener {
+
+    /**
+     * Called each time a frame has been rendered sharp
+     * @param page             the page displayed, starting from 1
+     * @param firstPixelMillis from the request to the first content shown, the low resolution
+     *                         preview when two-pass rendering is on and the page wasn't cached
+     * @param sharpMillis      from the request to the full resolution frame
+     */
+    void renderTime(int page, long firstPixelMillis, long sharpMillis);
+
+}
@@ -0,0 +1,23 @@
+package com.shockwave.pdfium.listener;
+
+import com.shockwave.pdfium.SearchHit;
+
+import java.util.List;
+
+/**
+ * Implements this interface to receive the results of a search as they are found.
+ * Called on the UI thread, never after the search was cancelled.
+ */
+public interface OnSearchListener {
+
+    /**
+     * Called with the hits of the pages searched since the last call, in page order
+     */
+    void searchHits(List<SearchHit> hits);
+
+    /**
+     * Called once every page was searched
+     * @param hitCount hits found in the whole document
+     */
+    void searchComplete(int hitCount);
+}
@@ -30,4 +30,50 @@ public interface Constants {
 
     QUICK_MOVE_THRESHOLD_DISTANCE = 50;
 
+    /** Edge length (px) of the square tiles used to render zoomed pages */
+    static final int TILE_SIZE = 256;
+
+    /** Zoom buckets per doubling of zoom; tiles are only re-rasterized when the bucket changes */
+    static final int ZOOM_BUCKETS_PER_OCTAVE = 4;
+
+    /** Tiles rendered around the visible ones, so a short pan finds them ready */
+    static final int TILE_PREFETCH_MARGIN = 1;
+
+    /** Native pages kept open per document before the least recently used ones are closed */
+    static final int DEFAULT_PAGE_CAPACITY = 16;
+
+    /** Text pages kept per document, among the open pages, for repeated text queries */
+    static final int TEXT_PAGE_CAPACITY = 4;
+
+    /** A background search delivers its hits every this many pages */
+    static final int SEARCH_BATCH_PAGES = 8;
+
+    /** Scale of the quick first pass shown while a page renders at full resolution */
+    static final float PREVIEW_RENDER_SCALE = 0.25f;
+
+    /** Gap (px at zoom 1) between pages in continuous scroll */
+    static final int CONTINUOUS_PAGE_SPACING = 8;
+
+    /** Evicted bitmaps kept for reuse by the next renders of the same size */
+    static final int BITMAP_POOL_MAX_BYTES = 4 * 1024 * 1024;
+
+    /** Thumbnails kept in memory by a ThumbnailLoader */
+    static final int THUMBNAIL_MEMORY_CACHE_BYTES = 4 * 1024 * 1024;
+
+    /** Thumbnails kept on disk, shared by all documents */
+    static final long THUMBNAIL_DISK_CACHE_BYTES = 32 * 1024 * 1024;
+
+    /** Read-ahead cache of a document opened from a file, in 64KB blocks */
+    static final int DOCUMENT_READ_AHEAD_BYTES = 1024 * 1024;
+
+    /** Size given to the pages of a growing file not arrived yet, when no page has */
+    static final float A4_WIDTH_POINTS = 595;
+    static final float A4_HEIGHT_POINTS = 842;
+
+    /** How often a view showing a growing file checks what arrived */
+    static final long GROWING_FILE_POLL_MILLIS = 500;
+
+    /** Background drawn around the page */
+    static final int PAGE_BACKGROUND_COLOR = 0xFF848484;
+
 }
@@ -87,7 +87,8 @@ public class DragPinchListener implements OnTouchListener {
 
         /**
          * @param dr    The differential ratio
-         * @param pivot The pivot point on which the redim occurs
+         * @param pivot The pivot point on which the redim occurs,
+         *              reused by the next events: copy it to keep it
          */
         void onPinch(float dr, PointF pivot);
 
@@ -115,6 +116,8 @@ public class DragPinchListener implements OnTouchListener {
 
     private float zoomLastDistance;
 
+    private final PointF pinchPivot = new PointF();
+
     private OnDragListener onDragListener;
 
     private OnPinchListener onPinchListener;
@@ -227,8 +230,8 @@ public class DragPinchListener implements OnTouchListener {
         float zoomCurrentDistance = distance(event);
 
         if (onPinchListener != null) {
-            onPinchListener.onPinch(zoomCurrentDistance / zoomLastDistance, //
-                    new PointF(event.getX(POINTER1),event.getY(POINTER1)));
+            pinchPivot.set(event.getX(POINTER1), event.getY(POINTER1));
+            onPinchListener.onPinch(zoomCurrentDistance / zoomLastDistance, pinchPivot);
         }
 
         zoomLastDistance = zoomCurrentDistance;
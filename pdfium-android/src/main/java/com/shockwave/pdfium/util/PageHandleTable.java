@@ -0,0 +1,143 @@
+package com.shockwave.pdfium.util;
+
+import java.util.Arrays;
+
+/**
+ * Native page handles of a document, indexed by page in dense primitive arrays.
+ * Lookups don't box or allocate, which matters since they run on every render.
+ * <p/>
+ * Also keeps what the page pool needs: a last-use stamp per page for LRU eviction
+ * and a pin count for the pages that must stay open.
+ * A handle of 0 means the page isn't loaded. Not thread safe, guard it with the document lock.
+ */
+public class PageHandleTable {
+
+    private long[] mHandles;
+    private long[] mLastUse;
+    private int[] mPins;
+
+    /** Indices of the loaded pages, packed in the first mLoadedCount slots */
+    private int[] mLoaded;
+    /** Position + 1 of each page in mLoaded, 0 when not loaded */
+    private int[] mLoadedSlot;
+    private int mLoadedCount = 0;
+
+    private long mClock = 0;
+
+    public PageHandleTable(int pageCount){
+        int capacity = Math.max(pageCount, 0);
+        mHandles = new long[capacity];
+        mLastUse = new long[capacity];
+        mPins = new int[capacity];
+        mLoaded = new int[capacity];
+        mLoadedSlot = new int[capacity];
+    }
+
+    /** Grow the table so it can hold pageCount pages */
+    public void ensureCapacity(int pageCount){
+        if(pageCount <= mHandles.length) return;
+        mHandles = Arrays.copyOf(mHandles, pageCount);
+        mLastUse = Arrays.copyOf(mLastUse, pageCount);
+        mPins = Arrays.copyOf(mPins, pageCount);
+        mLoaded = Arrays.copyOf(mLoaded, pageCount);
+        mLoadedSlot = Arrays.copyOf(mLoadedSlot, pageCount);
+    }
+
+    public int capacity(){
+        return mHandles.length;
+    }
+
+    /** Number of loaded pages */
+    public int size(){
+        return mLoadedCount;
+    }
+
+    private boolean inRange(int index){
+        return index >= 0 && index < mHandles.length;
+    }
+
+    public boolean contains(int index){
+        return inRange(index) && mHandles[index] != 0;
+    }
+
+    /** @return the handle of a loaded page and mark it as used, or 0 when not loaded */
+    public long get(int index){
+        if(!inRange(index)) return 0;
+        long handle = mHandles[index];
+        if(handle != 0) mLastUse[index] = ++mClock;
+        return handle;
+    }
+
+    /** @return the handle previously stored for this page, or 0 */
+    public long put(int index, long handle){
+        if(index < 0) throw new IndexOutOfBoundsException("Page index: " + index);
+        if(handle == 0) return remove(index);
+        ensureCapacity(index + 1);
+
+        long previous = mHandles[index];
+        mHandles[index] = handle;
+        mLastUse[index] = ++mClock;
+        if(previous == 0){
+            mLoaded[mLoadedCount] = index;
+            mLoadedSlot[index] = ++mLoadedCount;
+        }
+        return previous;
+    }
+
+    /** @return the handle that was stored for this page, or 0 */
+    public long remove(int index){
+        if(!inRange(index)) return 0;
+        long previous = mHandles[index];
+        if(previous == 0) return 0;
+
+        mHandles[index] = 0;
+        int slot = mLoadedSlot[index] - 1;
+        int last = mLoaded[--mLoadedCount];
+        mLoaded[slot] = last;
+        mLoadedSlot[last] = slot + 1;
+        mLoadedSlot[index] = 0;
+        return previous;
+    }
+
+    /** @return the page index of the i-th loaded page, 0 <= i < {@link #size()} */
+    public int loadedPageAt(int i){
+        return mLoaded[i];
+    }
+
+    public void pin(int index){
+        ensureCapacity(index + 1);
+        mPins[index]++;
+    }
+
+    /** @return true when the last pin of the page was released */
+    public boolean unpin(int index){
+        if(!inRange(index) || mPins[index] == 0) return false;
+        return --mPins[index] == 0;
+    }
+
+    public boolean isPinned(int index){
+        return inRange(index) && mPins[index] > 0;
+    }
+
+    /** @return the least recently used loaded page that isn't pinned, or -1 */
+    public int findEvictable(){
+        int victim = -1;
+        long oldest = Long.MAX_VALUE;
+        for(int i = 0; i < mLoadedCount; i++){
+            int index = mLoaded[i];
+            if(mPins[index] == 0 && mLastUse[index] < oldest){
+                oldest = mLastUse[index];
+                victim = index;
+            }
+        }
+        return victim;
+    }
+
+    /** Forget every handle and pin, without closing anything */
+    public void clear(){
+        Arrays.fill(mHandles, 0);
+        Arrays.fill(mPins, 0);
+        Arrays.fill(mLoadedSlot, 0);
+        mLoadedCount = 0;
+    }
+}
@@ -0,0 +1,108 @@
+package com.shockwave.pdfium.util;
+
+/**
+ * Pages stacked vertically for continuous scrolling, each scaled to the view width.
+ * <p/>
+ * Offsets are computed once from the page size table, in pixels at zoom 1, so finding
+ * the pages in a viewport is a binary search and doesn't depend on the page count.
+ * Immutable: rebuild it when the view width changes.
+ */
+public class PageLayout {
+
+    private final int mWidth;
+    private final int mSpacing;
+    /** Top of each page, plus the bottom of the last page at index pageCount */
+    private final int[] mTops;
+    private final int[] mHeights;
+
+    /**
+     * @param pageSizes width and height in points of each page, as pairs
+     * @param width     view width, every page is scaled to it
+     * @param spacing   gap between pages, in pixels at zoom 1
+     */
+    public PageLayout(float[] pageSizes, int width, int spacing){
+        int pageCount = pageSizes.length / 2;
+        mWidth = width;
+        mSpacing = spacing;
+        mTops = new int[pageCount + 1];
+        mHeights = new int[pageCount];
+
+        int top = 0;
+        for(int i = 0; i < pageCount; i++){
+            float pageWidth = pageSizes[i * 2];
+            float pageHeight = pageSizes[i * 2 + 1];
+            mHeights[i] = pageWidth > 0 ? Math.round(pageHeight * width / pageWidth) : 0;
+            mTops[i] = top;
+            top += mHeights[i] + (i < pageCount - 1 ? spacing : 0);
+        }
+        mTops[pageCount] = top;
+    }
+
+    public int getPageCount(){
+        return mHeights.length;
+    }
+
+    /** Width of every page at zoom 1 */
+    public int getWidth(){
+        return mWidth;
+    }
+
+    public int getSpacing(){
+        return mSpacing;
+    }
+
+    /** Height of all pages and gaps at zoom 1 */
+    public int getTotalHeight(){
+        return mTops[mHeights.length];
+    }
+
+    public int getPageTop(int index){
+        return mTops[index];
+    }
+
+    public int getPageHeight(int index){
+        return mHeights[index];
+    }
+
+    /**
+     * @param y offset at zoom 1
+     * @return the page covering y, or the page above it when y falls in a gap;
+     *         clamped to the first and last page, -1 if there are no pages
+     */
+    public int pageAt(float y){
+        int count = mHeights.length;
+        if(count == 0) return -1;
+        //Last page whose top is <= y
+        int low = 0;
+        int high = count - 1;
+        while(low < high){
+            int mid = (low + high + 1) >>> 1;
+            if(mTops[mid] <= y){
+                low = mid;
+            }else{
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /** @return the first page visible in a viewport starting at top (zoom 1), -1 if none */
+    public int firstVisiblePage(float top){
+        int page = pageAt(top);
+        //Viewport starting in the gap below a page
+        if(page >= 0 && page < mHeights.length - 1 && top >= mTops[page] + mHeights[page]){
+            page++;
+        }
+        return page;
+    }
+
+    /** @return the last page visible in a viewport ending at bottom (zoom 1), -1 if none */
+    public int lastVisiblePage(float bottom){
+        int page = pageAt(bottom);
+        //A page starting exactly at the bottom edge isn't visible
+        if(page > 0 && mTops[page] >= bottom){
+            page--;
+        }
+        return page;
+    }
+}
@@ -0,0 +1,213 @@
+package com.shockwave.pdfium.util;
+
+import static com.shockwave.pdfium.util.Constants.*;
+
+/**
+ * Zoom and position of the document in the view, and how drags and pinches change them.
+ * <p/>
+ * One page at a time, the page is a rectangle in screen pixels. In continuous scroll, the
+ * position is a scroll offset over a {@link PageLayout}, in pixels at the current zoom.
+ * Plain Java without the Android classes, so the gesture path can be measured on a JVM:
+ * it works on fields in place and never allocates. UI thread only.
+ */
+public class PageTransform {
+
+    private int mScreenWidth;
+    private int mScreenHeight;
+
+    private int mPageLeft;
+    private int mPageTop;
+    private int mPageRight;
+    private int mPageBottom;
+
+    private float mZoom = MINIMUM_ZOOM;
+    private boolean isZoomed = false;
+
+    private float mScrollX = 0;
+    private float mScrollY = 0;
+
+    public void setScreenSize(int width, int height){
+        mScreenWidth = width;
+        mScreenHeight = height;
+    }
+
+    public int getScreenWidth(){
+        return mScreenWidth;
+    }
+
+    public int getScreenHeight(){
+        return mScreenHeight;
+    }
+
+    public float getZoom(){
+        return mZoom;
+    }
+
+    public boolean isZoomed(){
+        return isZoomed;
+    }
+
+    /** Back to zoom 1, the page rectangle and scroll position are left to the caller */
+    public void resetZoom(){
+        mZoom = MINIMUM_ZOOM;
+        isZoomed = false;
+    }
+
+    public void setPageRect(int left, int top, int right, int bottom){
+        mPageLeft = left;
+        mPageTop = top;
+        mPageRight = right;
+        mPageBottom = bottom;
+    }
+
+    public int getPageLeft(){
+        return mPageLeft;
+    }
+
+    public int getPageTop(){
+        return mPageTop;
+    }
+
+    public int getPageRight(){
+        return mPageRight;
+    }
+
+    public int getPageBottom(){
+        return mPageBottom;
+    }
+
+    /**
+     * Scale the page around a pivot, the zoom kept under MAXIMUM_ZOOM, then move it so it
+     * doesn't leave a gap at the screen edges.
+     * @param factor ratio to the current zoom
+     * @return false, with nothing changed, when it would zoom out under MINIMUM_ZOOM:
+     *         the page should be fit to the screen instead
+     */
+    public boolean zoomPage(float factor, float pivotX, float pivotY){
+        if(mZoom * factor < MINIMUM_ZOOM) return false;
+        if(mZoom * factor > MAXIMUM_ZOOM){
+            factor = MAXIMUM_ZOOM / mZoom;
+        }
+        mZoom *= factor;
+        //Same arithmetic as Matrix.setScale(factor, factor, pivotX, pivotY) then mapRect
+        float translateX = pivotX - factor * pivotX;
+        float translateY = pivotY - factor * pivotY;
+        mPageLeft = (int)(mPageLeft * factor + translateX);
+        mPageTop = (int)(mPageTop * factor + translateY);
+        mPageRight = (int)(mPageRight * factor + translateX);
+        mPageBottom = (int)(mPageBottom * factor + translateY);
+        isZoomed = true;
+
+        //Fix movement while zooming
+        float moveX = 0f;
+        float moveY = 0f;
+        if(mPageLeft > 0){
+            moveX -= mPageLeft;
+        }
+        if(mPageTop > 0){
+            moveY -= mPageTop;
+        }
+        if(mPageRight < mScreenWidth){
+            moveX = mScreenWidth - mPageRight;
+        }
+        if(mPageBottom < mScreenHeight){
+            moveY = mScreenHeight - mPageBottom;
+        }
+        movePage(moveX, moveY);
+        return true;
+    }
+
+    /**
+     * Move a zoomed page by a drag, no further than needed to show its edges, and centered
+     * on an axis where it is smaller than the screen.
+     * @return false if the page isn't zoomed, it doesn't move then
+     */
+    public boolean movePage(float distanceX, float distanceY){
+        if(!isZoomed) return false;
+        float newLeft = mPageLeft + distanceX;
+        float newRight = mPageRight + distanceX;
+        float newTop = mPageTop + distanceY;
+        float newBottom = mPageBottom + distanceY;
+
+        //Don't move more than needed each side.
+        if(distanceX > 0 && newRight >= mScreenWidth && newLeft >= 0){
+            distanceX = -mPageLeft;
+        }
+        if(distanceX < 0 && newLeft <= 0 && newRight <= mScreenWidth){
+            distanceX = mScreenWidth - mPageRight;
+        }
+        if(distanceY > 0 && newBottom >= mScreenHeight && newTop >= 0){
+            distanceY = -mPageTop;
+        }
+        if(distanceY < 0 && newTop <= 0 && newBottom <= mScreenHeight){
+            distanceY = mScreenHeight - mPageBottom;
+        }
+        int pageWidth = mPageRight - mPageLeft;
+        int pageHeight = mPageBottom - mPageTop;
+        if(mScreenHeight > pageHeight){
+            //Center vertical
+            setPagePosition(mPageLeft + distanceX, (mScreenHeight - pageHeight) / 2);
+        }else if(mScreenWidth > pageWidth){
+            //Center horizontal
+            setPagePosition((mScreenWidth - pageWidth) / 2, mPageTop + distanceY);
+        }else{
+            setPagePosition(mPageLeft + distanceX, mPageTop + distanceY);
+        }
+        return true;
+    }
+
+    /** Move the page, its size unchanged, so its top left corner is at (x, y) */
+    public void setPagePosition(float x, float y){
+        int width = mPageRight - mPageLeft;
+        int height = mPageBottom - mPageTop;
+        mPageLeft = (int)x;
+        mPageRight = mPageLeft + width;
+        mPageTop = (int)y;
+        mPageBottom = mPageTop + height;
+    }
+
+    public float getScrollX(){
+        return mScrollX;
+    }
+
+    public float getScrollY(){
+        return mScrollY;
+    }
+
+    /** Scroll position, in pixels at the current zoom; call {@link #clampScroll} after */
+    public void setScroll(float x, float y){
+        mScrollX = x;
+        mScrollY = y;
+    }
+
+    /** Scroll by the distance a finger moved */
+    public void scrollBy(PageLayout layout, float distanceX, float distanceY){
+        mScrollX -= distanceX;
+        mScrollY -= distanceY;
+        clampScroll(layout);
+    }
+
+    /** Zoom the pages of a layout by factor, the point under the pivot staying in place */
+    public void zoomScroll(PageLayout layout, float factor, float pivotX, float pivotY){
+        float newZoom = Math.max(MINIMUM_ZOOM, Math.min(mZoom * factor, MAXIMUM_ZOOM));
+        float scale = newZoom / mZoom;
+        mScrollX = (mScrollX + pivotX) * scale - pivotX;
+        mScrollY = (mScrollY + pivotY) * scale - pivotY;
+        mZoom = newZoom;
+        isZoomed = mZoom > MINIMUM_ZOOM;
+        clampScroll(layout);
+    }
+
+    /** Keep the screen over the pages of the layout */
+    public void clampScroll(PageLayout layout){
+        float maxX = layout.getWidth() * mZoom - mScreenWidth;
+        float maxY = layout.getTotalHeight() * mZoom - mScreenHeight;
+        mScrollX = Math.max(0, Math.min(mScrollX, maxX));
+        mScrollY = Math.max(0, Math.min(mScrollY, maxY));
+    }
+
+    /** @return the page of the layout at the middle of the screen, -1 if none */
+    public int centerPage(PageLayout layout){
+        return layout.pageAt((mScrollY + mScreenHeight / 2f) / mZoom);
+    }
+}
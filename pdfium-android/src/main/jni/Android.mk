@@ -23,10 +23,13 @@ include $(CLEAR_VARS)
 LOCAL_MODULE := jniPdfium
 
 LOCAL_CFLAGS += -DHAVE_PTHREADS
+#Outline traversal, with a libpdfium.so exporting FPDFBookmark_GetFirstChild and co.
+#LOCAL_CFLAGS += -DPDFIUM_OUTLINE_TREE
 LOCAL_C_INCLUDES += $(LOCAL_PATH)/include
 LOCAL_SHARED_LIBRARIES += aospPdfium
-LOCAL_LDLIBS += -llog -landroid
+LOCAL_LDLIBS += -llog -landroid -ljnigraphics
 
-LOCAL_SRC_FILES :=  $(LOCAL_PATH)/src/mainJNILib.cpp
+LOCAL_SRC_FILES :=  $(LOCAL_PATH)/src/mainJNILib.cpp \
+                    $(LOCAL_PATH)/src/androidRender.cpp
 
 include $(BUILD_SHARED_LIBRARY)
@@ -0,0 +1,202 @@
+#include "render.hpp"
+
+extern "C" {
+    #include <string.h>
+    #include <time.h>
+}
+
+#include <android/native_window.h>
+#include <android/native_window_jni.h>
+#include <android/bitmap.h>
+
+/*
+ * Render targets of Android: window surfaces and android.graphics.Bitmap.
+ * Left out of host builds, see host/Makefile.
+ * The LibraryLock is only taken around the pdfium calls, once the pixels are locked.
+ */
+
+/** For PdfiumMetrics, which keeps the counters on the Java side */
+static jlong monotonicNanos(){
+    struct timespec now;
+    clock_gettime(CLOCK_MONOTONIC, &now);
+    return (jlong)now.tv_sec * 1000000000LL + now.tv_nsec;
+}
+
+extern "C" { //For JNI support
+
+/** @return nanoseconds spent waiting for the window buffer, -1 if nothing was rendered */
+JNI_FUNC(jlong, PdfiumCore, nativeRenderPage)(JNI_ARGS, jlong pagePtr, jobject objSurface,
+                                              jint dpi, jint startX, jint startY,
+                                              jint drawSizeHor, jint drawSizeVer){
+    ANativeWindow *nativeWindow = ANativeWindow_fromSurface(env, objSurface);
+    if(nativeWindow == NULL){
+        LOGE("native window pointer null");
+        return -1;
+    }
+    FPDF_PAGE page = reinterpret_cast<FPDF_PAGE>(pagePtr);
+
+    if(page == NULL || nativeWindow == NULL){
+        LOGE("Render page pointers invalid");
+        ANativeWindow_release(nativeWindow);
+        return -1;
+    }
+
+    if(ANativeWindow_getFormat(nativeWindow) != WINDOW_FORMAT_RGBA_8888){
+        LOGD("Set format to RGBA_8888");
+        ANativeWindow_setBuffersGeometry( nativeWindow,
+                                          ANativeWindow_getWidth(nativeWindow),
+                                          ANativeWindow_getHeight(nativeWindow),
+                                          WINDOW_FORMAT_RGBA_8888 );
+    }
+
+    ANativeWindow_Buffer buffer;
+    int ret;
+    jlong lockStart = monotonicNanos();
+    if( (ret = ANativeWindow_lock(nativeWindow, &buffer, NULL)) != 0 ){
+        LOGE("Locking native window failed: %s", strerror(ret * -1));
+        ANativeWindow_release(nativeWindow);
+        return -1;
+    }
+    jlong lockWait = monotonicNanos() - lockStart;
+
+    {
+        //Only once the buffer is ours, the wait for it doesn't hold up other documents
+        LibraryLock lock;
+        renderPageInternal(page, buffer.bits, (int)(buffer.stride) * 4,
+                           (int)startX, (int)startY,
+                           buffer.width, buffer.height,
+                           (int)drawSizeHor, (int)drawSizeVer, 0, NULL);
+    }
+
+    ANativeWindow_unlockAndPost(nativeWindow);
+    ANativeWindow_release(nativeWindow);
+    return lockWait;
+}
+
+static bool renderPageBitmapInternal(JNIEnv *env, jlong pagePtr, jobject bitmap,
+                                     int startX, int startY,
+                                     int drawSizeHor, int drawSizeVer,
+                                     int flags, IFSDK_PAUSE *pause){
+    FPDF_PAGE page = reinterpret_cast<FPDF_PAGE>(pagePtr);
+
+    if(page == NULL || bitmap == NULL){
+        LOGE("Render page pointers invalid");
+        return false;
+    }
+
+    AndroidBitmapInfo info;
+    int ret;
+    if( (ret = AndroidBitmap_getInfo(env, bitmap, &info)) < 0 ){
+        LOGE("Fetching bitmap info failed: %d", ret);
+        return false;
+    }
+    if(info.format != ANDROID_BITMAP_FORMAT_RGBA_8888){
+        LOGE("Bitmap format must be RGBA_8888");
+        return false;
+    }
+
+    void *pixels;
+    if( (ret = AndroidBitmap_lockPixels(env, bitmap, &pixels)) < 0 ){
+        LOGE("Locking bitmap failed: %d", ret);
+        return false;
+    }
+
+    bool done;
+    {
+        LibraryLock lock;
+        done = renderPageInternal(page, pixels, (int)info.stride,
+                                  startX, startY,
+                                  (int)info.width, (int)info.height,
+                                  drawSizeHor, drawSizeVer, flags, pause);
+    }
+
+    AndroidBitmap_unlockPixels(env, bitmap);
+    return done;
+}
+
+JNI_FUNC(jboolean, PdfiumCore, nativeRenderPageBitmap)(JNI_ARGS, jlong pagePtr, jobject bitmap,
+                                                       jint dpi, jint startX, jint startY,
+                                                       jint drawSizeHor, jint drawSizeVer, jint flags){
+    return renderPageBitmapInternal(env, pagePtr, bitmap,
+                                    (int)startX, (int)startY,
+                                    (int)drawSizeHor, (int)drawSizeVer, (int)flags, NULL) ? JNI_TRUE : JNI_FALSE;
+}
+
+JNI_FUNC(jboolean, PdfiumCore, nativeRenderPageBitmapProgressive)(JNI_ARGS, jlong pagePtr, jobject bitmap,
+                                                                  jint dpi, jint startX, jint startY,
+                                                                  jint drawSizeHor, jint drawSizeVer,
+                                                                  jint flags, jobject signal){
+    RenderPause pause;
+    if(signal == NULL || !initRenderPause(env, signal, &pause)){
+        LOGE("Invalid cancellation signal");
+        return JNI_FALSE;
+    }
+    return renderPageBitmapInternal(env, pagePtr, bitmap,
+                                    (int)startX, (int)startY,
+                                    (int)drawSizeHor, (int)drawSizeVer, (int)flags, &pause) ? JNI_TRUE : JNI_FALSE;
+}
+
+/**
+ * Render several pages, each into its own bitmap, in one JNI crossing.
+ * pagesPtr holds the handle of the pages already open, 0 for the others: those are loaded
+ * for the render and closed right after. rects holds left, top, right, bottom of the page
+ * in each bitmap.
+ * @return whether each page was rendered
+ */
+JNI_FUNC(jbooleanArray, PdfiumCore, nativeRenderPagesBitmap)(JNI_ARGS, jlong docPtr,
+                                                             jintArray pageIndices, jlongArray pagesPtr,
+                                                             jobjectArray bitmaps, jintArray rects,
+                                                             jint flags){
+    int count = (int)(env -> GetArrayLength(pageIndices));
+    if(documentOf(docPtr) == NULL
+       || env -> GetArrayLength(pagesPtr) != count
+       || env -> GetArrayLength(bitmaps) != count
+       || env -> GetArrayLength(rects) != count * 4){
+        LOGE("Invalid batch render arguments");
+        return NULL;
+    }
+
+    jbooleanArray javaResults = env -> NewBooleanArray(count);
+    if(javaResults == NULL) return NULL;
+
+    jint *indices = env -> GetIntArrayElements(pageIndices, NULL);
+    jlong *pages = env -> GetLongArrayElements(pagesPtr, NULL);
+    jint *bounds = env -> GetIntArrayElements(rects, NULL);
+    jboolean *results = env -> GetBooleanArrayElements(javaResults, NULL);
+
+    int i;
+    for(i = 0; i < count; i++){
+        FPDF_PAGE page = reinterpret_cast<FPDF_PAGE>(pages[i]);
+        bool transientPage = (page == NULL);
+        if(transientPage){
+            LibraryLock lock;
+            page = loadTransientPage(docPtr, (int)indices[i]);
+            if(page == NULL){
+                LOGE("Loading page %d failed", (int)indices[i]);
+                results[i] = JNI_FALSE;
+                continue;
+            }
+        }
+
+        jobject bitmap = env -> GetObjectArrayElement(bitmaps, i);
+        jint *rect = bounds + i * 4;
+        results[i] = renderPageBitmapInternal(env, reinterpret_cast<jlong>(page), bitmap,
+                                              (int)rect[0], (int)rect[1],
+                                              (int)(rect[2] - rect[0]), (int)(rect[3] - rect[1]),
+                                              (int)flags, NULL) ? JNI_TRUE : JNI_FALSE;
+        env -> DeleteLocalRef(bitmap);
+
+        if(transientPage){
+            LibraryLock lock;
+            FPDF_ClosePage(page);
+        }
+    }
+
+    env -> ReleaseIntArrayElements(pageIndices, indices, JNI_ABORT);
+    env -> ReleaseLongArrayElements(pagesPtr, pages, JNI_ABORT);
+    env -> ReleaseIntArrayElements(rects, bounds, JNI_ABORT);
+    env -> ReleaseBooleanArrayElements(javaResults, results, 0);
+    return javaResults;
+}
+
+}//extern C
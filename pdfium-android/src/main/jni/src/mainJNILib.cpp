@@ -2,25 +2,59 @@
 
 extern "C" {
     #include <unistd.h>
-    #include <sys/mman.h>
+    #include <errno.h>
     #include <sys/stat.h>
     #include <string.h>
 }
 
-#include <android/native_window.h>
-#include <android/native_window_jni.h>
 #include <utils/Mutex.h>
 using namespace android;
 
-#include <fpdfview.h>
+#include "render.hpp"
+#include <fpdf_dataavail.h>
+#include <fpdftext.h>
+#include <fpdfdoc.h>
+
+/*
+ * Outline traversal is missing from the fpdfdoc.h of the bundled pdfium. Define
+ * PDFIUM_OUTLINE_TREE when linking a pdfium that exports it; without it the outline
+ * comes back empty and only FPDFBookmark_Find works.
+ */
+#ifdef PDFIUM_OUTLINE_TREE
+extern "C" {
+    DLLEXPORT FPDF_BOOKMARK STDCALL FPDFBookmark_GetFirstChild(FPDF_DOCUMENT document, FPDF_BOOKMARK bookmark);
+    DLLEXPORT FPDF_BOOKMARK STDCALL FPDFBookmark_GetNextSibling(FPDF_DOCUMENT document, FPDF_BOOKMARK bookmark);
+    DLLEXPORT unsigned long STDCALL FPDFBookmark_GetTitle(FPDF_BOOKMARK bookmark, void* buffer, unsigned long buflen);
+}
+#endif
 
 
+/*
+ * Threading model
+ *
+ * PdfiumCore may be called from several threads (PdfViews share a pool of render workers),
+ * but pdfium isn't thread safe, not even across documents: font and glyph caches, the module
+ * manager and FPDF_GetLastError are process wide. The rules are:
+ *  - Every call into pdfium holds sLibraryLock, through a LibraryLock taken by the JNI
+ *    function. Helpers called from those expect it held; it isn't reentrant.
+ *  - Waits that don't need pdfium, like locking a window buffer or the pixels of a bitmap,
+ *    happen before taking it, so they don't stall the other documents.
+ *  - On the Java side, calls on a document are also serialized by its PdfDocument.Lock,
+ *    which guards the Java state of the document (open pages, text pages...).
+ * So only one thread is ever in pdfium. Several render workers still pay off: the Java side
+ * of a frame (bitmap allocation, compositing, the render cache) overlaps the pdfium calls
+ * of other frames.
+ */
 static Mutex sLibraryLock;
 
+LibraryLock::LibraryLock(){ sLibraryLock.lock(); }
+LibraryLock::~LibraryLock(){ sLibraryLock.unlock(); }
+
+//Guarded by sLibraryLock
 static int sLibraryReferenceCount = 0;
 
+/** Called with sLibraryLock held, as are the constructor and destructor of DocumentFile */
 static void initLibraryIfNeed(){
-    Mutex::Autolock lock(sLibraryLock);
     if(sLibraryReferenceCount == 0){
         LOGD("Init FPDF library");
         FPDF_InitLibrary(NULL);
@@ -28,49 +62,184 @@ static void initLibraryIfNeed(){
     sLibraryReferenceCount++;
 }
 
+static void flushBitmapPool();
+
 static void destroyLibraryIfNeed(){
-    Mutex::Autolock lock(sLibraryLock);
     sLibraryReferenceCount--;
     if(sLibraryReferenceCount == 0){
         LOGD("Destroy FPDF library");
+        //Pooled bitmaps are pdfium objects, they must go before the library
+        flushBitmapPool();
         FPDF_DestroyLibrary();
     }
 }
 
-class DocumentFile {
-    private:
-    void *fileMappedBuffer;
-    int fileFd;
+/*
+ * Pool of FPDF_BITMAP handles wrapping the pixel buffers rendered into.
+ *
+ * A handle wraps an external buffer (FPDFBitmap_CreateEx), so it only holds the buffer address
+ * and geometry: a handle is reused whenever the same buffer is rendered into again, which is
+ * the case for the few buffers a window swaps between, and for bitmaps recycled by the Java
+ * side (see BitmapPool). Handles are keyed by address, size and stride, so a buffer freed and
+ * another allocated at the same place with the same geometry gets an identical handle.
+ * Least recently used handles not in use are destroyed when the pool is full.
+ */
+struct PooledBitmap {
+    void *buffer;
+    int width;
+    int height;
+    int stride;
+    FPDF_BITMAP bitmap;
+    bool inUse;
+    unsigned long lastUse;
+};
 
-    public:
-    FPDF_DOCUMENT pdfDocument;
-    size_t fileSize;
-    void setFile(int fd, void *buffer, size_t fileLength){
-        fileFd = fd;
-        fileSize = fileLength;
-        fileMappedBuffer = buffer;
-        LOGD("File Size: %d", (int)fileSize);
+static const int BITMAP_POOL_SIZE = 32;
+
+static Mutex sBitmapPoolLock;
+//Guarded by sBitmapPoolLock
+static PooledBitmap sBitmapPool[BITMAP_POOL_SIZE];
+static unsigned long sBitmapPoolClock = 0;
+static jlong sBitmapPoolHits = 0;
+static jlong sBitmapPoolMisses = 0;
+static jlong sBitmapPoolEvictions = 0;
+
+/**
+ * @param pooled set to false when the pool is full of handles in use,
+ *               the handle must then be destroyed after use
+ */
+static FPDF_BITMAP acquireBitmap(void *bits, int width, int height, int stride, bool *pooled){
+    Mutex::Autolock lock(sBitmapPoolLock);
+    sBitmapPoolClock++;
+
+    int victim = -1;
+    int i;
+    for(i = 0; i < BITMAP_POOL_SIZE; i++){
+        PooledBitmap *entry = &sBitmapPool[i];
+        if(entry->bitmap == NULL){
+            if(victim < 0 || sBitmapPool[victim].bitmap != NULL) victim = i;
+            continue;
+        }
+        if(entry->inUse) continue;
+        if(entry->buffer == bits && entry->width == width
+           && entry->height == height && entry->stride == stride){
+            entry->inUse = true;
+            entry->lastUse = sBitmapPoolClock;
+            sBitmapPoolHits++;
+            *pooled = true;
+            return entry->bitmap;
+        }
+        //Prefer a free slot, then the least recently used handle
+        if(victim < 0 || (sBitmapPool[victim].bitmap != NULL
+                          && entry->lastUse < sBitmapPool[victim].lastUse)){
+            victim = i;
+        }
     }
-    void* getFileMap() { return fileMappedBuffer; }
 
-    DocumentFile() :  pdfDocument(NULL),
-                      fileMappedBuffer(NULL) { initLibraryIfNeed(); }
-    ~DocumentFile();
-};
-DocumentFile::~DocumentFile(){
-    if(pdfDocument != NULL){
-        FPDF_CloseDocument(pdfDocument);
+    sBitmapPoolMisses++;
+    FPDF_BITMAP bitmap = FPDFBitmap_CreateEx(width, height, FPDFBitmap_BGRA, bits, stride);
+    if(bitmap == NULL || victim < 0){
+        *pooled = false;
+        return bitmap;
     }
 
-    if(fileMappedBuffer != NULL){
-        munmap(fileMappedBuffer, fileSize);
-        //Leave the file closing work to Java
-        //close(fileFd);
+    PooledBitmap *entry = &sBitmapPool[victim];
+    if(entry->bitmap != NULL){
+        FPDFBitmap_Destroy(entry->bitmap);
+        sBitmapPoolEvictions++;
     }
+    entry->buffer = bits;
+    entry->width = width;
+    entry->height = height;
+    entry->stride = stride;
+    entry->bitmap = bitmap;
+    entry->inUse = true;
+    entry->lastUse = sBitmapPoolClock;
+    *pooled = true;
+    return bitmap;
+}
 
-    destroyLibraryIfNeed();
+static void releaseBitmap(FPDF_BITMAP bitmap, bool pooled){
+    if(bitmap == NULL) return;
+    if(!pooled){
+        FPDFBitmap_Destroy(bitmap);
+        return;
+    }
+
+    Mutex::Autolock lock(sBitmapPoolLock);
+    int i;
+    for(i = 0; i < BITMAP_POOL_SIZE; i++){
+        if(sBitmapPool[i].bitmap == bitmap){
+            sBitmapPool[i].inUse = false;
+            return;
+        }
+    }
 }
 
+/** Called with sLibraryLock held, once no document is left so nothing renders */
+static void flushBitmapPool(){
+    Mutex::Autolock lock(sBitmapPoolLock);
+    int i;
+    for(i = 0; i < BITMAP_POOL_SIZE; i++){
+        if(sBitmapPool[i].bitmap != NULL){
+            FPDFBitmap_Destroy(sBitmapPool[i].bitmap);
+        }
+        memset(&sBitmapPool[i], 0, sizeof(PooledBitmap));
+    }
+}
+
+/**
+ * Optional read-ahead for the file reader: reads smaller than a block are served from
+ * whole, aligned blocks kept in a small LRU, so pdfium's many small reads of objects
+ * next to each other (xref, page tree, content streams) cost one pread per block.
+ * Only used under the lock of its document, so not thread safe.
+ */
+class ReadAheadCache {
+    private:
+    struct Block {
+        unsigned long position;
+        size_t length;
+        unsigned long lastUse;
+        unsigned char *data;
+    };
+    Block *blocks;
+    int blockCount;
+    unsigned long clock;
+
+    public:
+    static const size_t BLOCK_SIZE = 64 * 1024;
+
+    ReadAheadCache(int count) : blockCount(count), clock(0) {
+        blocks = new Block[count];
+        memset(blocks, 0, sizeof(Block) * count);
+    }
+    ~ReadAheadCache(){
+        int i;
+        for(i = 0; i < blockCount; i++) free(blocks[i].data);
+        delete[] blocks;
+    }
+
+    /** @return the cached block starting at position, or the slot to load it into */
+    Block* find(unsigned long position, bool *hit){
+        Block *victim = &blocks[0];
+        int i;
+        for(i = 0; i < blockCount; i++){
+            Block *block = &blocks[i];
+            if(block->data != NULL && block->position == position){
+                block->lastUse = ++clock;
+                *hit = true;
+                return block;
+            }
+            if(block->lastUse < victim->lastUse) victim = block;
+        }
+        *hit = false;
+        victim->lastUse = ++clock;
+        return victim;
+    }
+
+    friend class DocumentFile;
+};
+
 inline long getFileSize(int fd){
     struct stat file_state;
 
@@ -82,54 +251,457 @@ inline long getFileSize(int fd){
     }
 }
 
+class DocumentFile;
+
+/** FX_FILEAVAIL answered by the document reading the file */
+struct FileAvail : FX_FILEAVAIL {
+    DocumentFile *doc;
+};
+
+/**
+ * The file grows by itself as it downloads, so where pdfium would like to read next
+ * isn't needed.
+ */
+static void ignoreDownloadHint(FX_DOWNLOADHINTS *pThis, size_t offset, size_t size){}
+
+/**
+ * An open document and the source it streams from: a file read with pread, or a Java
+ * SeekableSource called back through JNI. pdfium reads it through FPDF_FILEACCESS.m_GetBlock
+ * on demand, so memory use follows what it actually reads instead of the file size.
+ * Documents opened from a direct ByteBuffer use it in place and only keep it referenced.
+ */
+class DocumentFile {
+    private:
+    int fileFd;
+    ReadAheadCache *readAhead;
+    JavaVM *javaVm;
+    //Global references, released with the document
+    jobject javaSource;
+    jobject memoryBuffer;
+    jmethodID javaRead;
+    //Set for a file still being written, see setGrowingFile()
+    FPDF_AVAIL avail;
+    FileAvail fileAvail;
+    FX_DOWNLOADHINTS downloadHints;
+    /** Bytes readable from the start of the source, fileSize unless the file is growing */
+    unsigned long availableSize;
+    //CancellationSignal polled while the document loads, on the loading thread only
+    JNIEnv *openEnv;
+    jobject openSignal;
+    jmethodID openIsCanceled;
+
+    bool preadFully(unsigned long position, unsigned char *buffer, size_t size){
+        while(size > 0){
+            ssize_t n = pread(fileFd, buffer, size, (off_t)position);
+            if(n < 0 && errno == EINTR) continue;
+            if(n <= 0){
+                LOGE("Reading %u bytes at %lu failed", (unsigned int)size, position);
+                return false;
+            }
+            buffer += n;
+            position += n;
+            size -= n;
+        }
+        return true;
+    }
+
+    /** SeekableSource.read() straight into pdfium's buffer, wrapped as a direct ByteBuffer */
+    bool readJavaFully(unsigned long position, unsigned char *buffer, size_t size){
+        JNIEnv *env = getEnv();
+        if(env == NULL) return false;
+        while(size > 0){
+            jobject target = env->NewDirectByteBuffer(buffer, (jlong)size);
+            if(target == NULL){
+                env->ExceptionClear();
+                return false;
+            }
+            jint n = env->CallIntMethod(javaSource, javaRead, (jlong)position, target);
+            env->DeleteLocalRef(target);
+            if(env->ExceptionCheck()){
+                //Reported as a failed read to pdfium, it must not reach the caller's Java code
+                env->ExceptionDescribe();
+                env->ExceptionClear();
+                return false;
+            }
+            if(n <= 0 || (size_t)n > size){
+                LOGE("Reading %u bytes at %lu failed", (unsigned int)size, position);
+                return false;
+            }
+            buffer += n;
+            position += n;
+            size -= n;
+        }
+        return true;
+    }
+
+    bool readFully(unsigned long position, unsigned char *buffer, size_t size){
+        return javaSource != NULL ? readJavaFully(position, buffer, size)
+                                  : preadFully(position, buffer, size);
+    }
+
+    bool readCached(unsigned long position, unsigned char *buffer, size_t size){
+        while(size > 0){
+            unsigned long blockPosition = position - position % ReadAheadCache::BLOCK_SIZE;
+            bool hit;
+            ReadAheadCache::Block *block = readAhead->find(blockPosition, &hit);
+            //A block read while the file was shorter may have grown since
+            if(hit && position - blockPosition >= block->length) hit = false;
+            if(!hit){
+                if(block->data == NULL){
+                    block->data = (unsigned char*)malloc(ReadAheadCache::BLOCK_SIZE);
+                    if(block->data == NULL) return readFully(position, buffer, size);
+                }
+                size_t length = ReadAheadCache::BLOCK_SIZE;
+                if(blockPosition + length > availableSize) length = availableSize - blockPosition;
+                block->position = blockPosition;
+                if(!readFully(blockPosition, block->data, length)){
+                    free(block->data);
+                    block->data = NULL;
+                    return false;
+                }
+                block->length = length;
+            }
+
+            size_t offset = position - blockPosition;
+            if(offset >= block->length) return false;
+            size_t chunk = block->length - offset;
+            if(chunk > size) chunk = size;
+            memcpy(buffer, block->data + offset, chunk);
+            buffer += chunk;
+            position += chunk;
+            size -= chunk;
+        }
+        return true;
+    }
+
+    static bool isDataAvailable(FX_FILEAVAIL *pThis, size_t offset, size_t size){
+        return static_cast<FileAvail*>(pThis)->doc->isDataAvailable(offset, size);
+    }
+
+    static int getBlock(void *param, unsigned long position, unsigned char *buffer, unsigned long size){
+        DocumentFile *doc = reinterpret_cast<DocumentFile*>(param);
+        if(position + size < position || !doc->isDataAvailable(position, size)) return 0;
+        //A failed read makes pdfium give up loading right away
+        if(doc->isOpenCanceled()) return 0;
+        //Large reads (images, fonts) would only flush the cache
+        if(doc->readAhead == NULL || size >= ReadAheadCache::BLOCK_SIZE){
+            return doc->readFully(position, buffer, size) ? 1 : 0;
+        }
+        return doc->readCached(position, buffer, size) ? 1 : 0;
+    }
+
+    void setFileAccess(unsigned long fileLength, int readAheadBytes){
+        fileSize = fileLength;
+        availableSize = fileLength;
+        int blocks = readAheadBytes / (int)ReadAheadCache::BLOCK_SIZE;
+        readAhead = blocks > 0 ? new ReadAheadCache(blocks) : NULL;
+
+        fileAccess.m_FileLen = fileLength;
+        fileAccess.m_GetBlock = getBlock;
+        fileAccess.m_Param = this;
+        LOGD("File Size: %lu", fileSize);
+    }
+
+    /**
+     * pdfium only calls back while a Java thread is inside a native call on this document,
+     * so the thread is attached already; attaching is a fallback.
+     */
+    JNIEnv* getEnv(){
+        JNIEnv *env = NULL;
+        if(javaVm->GetEnv((void**)&env, JNI_VERSION_1_6) == JNI_OK) return env;
+#ifdef __ANDROID__
+        if(javaVm->AttachCurrentThread(&env, NULL) == JNI_OK) return env;
+#else
+        //The jni.h of desktop JDKs takes a void**
+        if(javaVm->AttachCurrentThread((void**)&env, NULL) == JNI_OK) return env;
+#endif
+        LOGE("No JNI environment for reading the document");
+        return NULL;
+    }
+
+    public:
+    FPDF_DOCUMENT pdfDocument;
+    unsigned long fileSize;
+    FPDF_FILEACCESS fileAccess;
+
+    /**
+     * @param fd read with pread, so its position is left alone; closing it is left to Java
+     * @param readAheadBytes read-ahead cache size, 0 to read exactly what pdfium asks for
+     */
+    void setFile(int fd, unsigned long fileLength, int readAheadBytes){
+        fileFd = fd;
+        setFileAccess(fileLength, readAheadBytes);
+    }
+
+    /**
+     * Read a file still being appended to, up to its final length, through an availability
+     * provider: the document, then each page, can be opened once its data has arrived.
+     * The data arrived is the current file length.
+     */
+    void setGrowingFile(int fd, unsigned long finalLength, int readAheadBytes){
+        setFile(fd, finalLength, readAheadBytes);
+        availableSize = 0;
+        fileAvail.version = 1;
+        fileAvail.IsDataAvail = isDataAvailable;
+        fileAvail.doc = this;
+        downloadHints.version = 1;
+        downloadHints.AddSegment = ignoreDownloadHint;
+        avail = FPDFAvail_Create(&fileAvail, &fileAccess);
+    }
+
+    bool isGrowing(){ return avail != NULL; }
+
+    bool isDataAvailable(unsigned long offset, unsigned long size){
+        if(offset + size > fileSize) return false;
+        if(offset + size <= availableSize) return true;
+        if(avail == NULL) return false;
+        long length = getFileSize(fileFd);
+        if(length > 0) availableSize = (unsigned long)length < fileSize ? (unsigned long)length : fileSize;
+        return offset + size <= availableSize;
+    }
+
+    /** @return true once FPDFAvail_GetDocument succeeded, the document can be used */
+    bool loadIfAvailable(){
+        if(pdfDocument != NULL) return true;
+        if(avail == NULL || !FPDFAvail_IsDocAvail(avail, &downloadHints)) return false;
+
+        pdfDocument = FPDFAvail_GetDocument(avail, NULL);
+        if(pdfDocument == NULL) LOGE("Error loading document, last error: %lu", FPDF_GetLastError());
+        return pdfDocument != NULL;
+    }
+
+    /** Pages of a growing file can't be loaded before their data arrived */
+    bool isPageAvailable(int pageIndex){
+        return avail == NULL || FPDFAvail_IsPageAvail(avail, pageIndex, &downloadHints) != 0;
+    }
+
+    /**
+     * Abort loading when signal is cancelled: reads then fail. Only valid during the JNI call
+     * loading the document; reset with a NULL signal before it returns.
+     */
+    void setOpenSignal(JNIEnv *env, jobject signal){
+        openEnv = env;
+        openSignal = signal;
+        openIsCanceled = NULL;
+        if(signal != NULL){
+            jclass signalClass = env->GetObjectClass(signal);
+            openIsCanceled = env->GetMethodID(signalClass, "isCanceled", "()Z");
+            env->DeleteLocalRef(signalClass);
+        }
+    }
+
+    bool isOpenCanceled(){
+        if(openSignal == NULL || openIsCanceled == NULL) return false;
+        return openEnv->CallBooleanMethod(openSignal, openIsCanceled) == JNI_TRUE;
+    }
+
+    /** @return false if the source doesn't have a read(long, ByteBuffer) method */
+    bool setJavaSource(JNIEnv *env, jobject source, unsigned long length, int readAheadBytes){
+        jclass clazz = env->GetObjectClass(source);
+        javaRead = env->GetMethodID(clazz, "read", "(JLjava/nio/ByteBuffer;)I");
+        env->DeleteLocalRef(clazz);
+        if(javaRead == NULL) return false;
+
+        env->GetJavaVM(&javaVm);
+        javaSource = env->NewGlobalRef(source);
+        setFileAccess(length, readAheadBytes);
+        return true;
+    }
+
+    /** Keep the buffer pdfium reads in place from alive as long as the document */
+    void setMemory(JNIEnv *env, jobject buffer, unsigned long length){
+        env->GetJavaVM(&javaVm);
+        memoryBuffer = env->NewGlobalRef(buffer);
+        fileSize = length;
+        availableSize = length;
+    }
+
+    DocumentFile() :  fileFd(-1), readAhead(NULL), javaVm(NULL), javaSource(NULL),
+                      memoryBuffer(NULL), javaRead(NULL), avail(NULL), availableSize(0),
+                      openEnv(NULL), openSignal(NULL), openIsCanceled(NULL),
+                      pdfDocument(NULL), fileSize(0) {
+        initLibraryIfNeed();
+    }
+    ~DocumentFile();
+};
+DocumentFile::~DocumentFile(){
+    if(pdfDocument != NULL) FPDF_CloseDocument(pdfDocument);
+    //The document reads through the provider, it goes last
+    if(avail != NULL) FPDFAvail_Destroy(avail);
+    delete readAhead;
+    if(javaVm != NULL){
+        JNIEnv *env = getEnv();
+        if(env != NULL){
+            if(javaSource != NULL) env->DeleteGlobalRef(javaSource);
+            if(memoryBuffer != NULL) env->DeleteGlobalRef(memoryBuffer);
+        }
+    }
+
+    destroyLibraryIfNeed();
+}
+
 extern "C" { //For JNI support
 
-JNI_FUNC(jlong, PdfiumCore, nativeOpenDocument)(JNI_ARGS, jint fd){
+/**
+ * Load the document of docFile, already given its source; docFile is deleted on failure.
+ * Called with sLibraryLock held.
+ */
+static jlong loadDocumentInternal(DocumentFile *docFile, const void *data){
+    unsigned long error = 0;
+    if(data != NULL){
+        docFile->pdfDocument = FPDF_LoadMemDocument(data, (int)docFile->fileSize, NULL);
+    }else{
+        docFile->pdfDocument = FPDF_LoadCustomDocument(&docFile->fileAccess, NULL);
+    }
+    if(docFile->pdfDocument == NULL) error = FPDF_GetLastError();
+    bool canceled = docFile->isOpenCanceled();
+    docFile->setOpenSignal(NULL, NULL);
+    if(docFile->pdfDocument == NULL){
+        if(canceled){
+            LOGD("Loading document cancelled");
+        }else{
+            LOGE("Error loading document, last error: %lu", error);
+        }
+        delete docFile;
+        return -1;
+    }
+
+    return reinterpret_cast<jlong>(docFile);
+}
 
-    size_t fileLength = (size_t)getFileSize(fd);
+JNI_FUNC(jlong, PdfiumCore, nativeOpenDocument)(JNI_ARGS, jint fd, jint readAheadBytes,
+                                                jobject signal){
+    LibraryLock lock;
+
+    long fileLength = getFileSize(fd);
     if(fileLength <= 0) return -1;
 
     DocumentFile *docFile = new DocumentFile();
+    docFile->setFile((int)fd, (unsigned long)fileLength, (int)readAheadBytes);
+    docFile->setOpenSignal(env, signal);
 
-    try{
-        void *map;
-        if( (map = mmap( docFile->getFileMap(), fileLength, PROT_READ|PROT_WRITE, MAP_PRIVATE, fd, 0 )) == NULL){
-            throw "Error mapping file";
-        }
-        docFile->setFile(fd, map, fileLength);
+    return loadDocumentInternal(docFile, NULL);
+}
 
-        if( (docFile->pdfDocument = FPDF_LoadMemDocument( reinterpret_cast<const void*>(docFile->getFileMap()),
-                                                          (int)docFile->fileSize, NULL)) == NULL) {
-            throw "Error loading document from file map";
-        }
+JNI_FUNC(jlong, PdfiumCore, nativeOpenMemDocument)(JNI_ARGS, jobject buffer){
+    LibraryLock lock;
+    void *data = env->GetDirectBufferAddress(buffer);
+    jlong length = env->GetDirectBufferCapacity(buffer);
+    if(data == NULL || length <= 0 || length > 0x7fffffff){
+        LOGE("Invalid document buffer");
+        return -1;
+    }
 
-        return reinterpret_cast<jlong>(docFile);
+    DocumentFile *docFile = new DocumentFile();
+    docFile->setMemory(env, buffer, (unsigned long)length);
 
-    }catch(const char* msg){
+    return loadDocumentInternal(docFile, data);
+}
+
+JNI_FUNC(jlong, PdfiumCore, nativeOpenCustomDocument)(JNI_ARGS, jobject source, jlong size,
+                                                      jint readAheadBytes){
+    LibraryLock lock;
+    //m_FileLen is an unsigned long, 32 bits on ARMv7
+    if(size <= 0 || (unsigned long long)size > (unsigned long long)(unsigned long)-1){
+        LOGE("Invalid document size: %lld", (long long)size);
+        return -1;
+    }
+
+    DocumentFile *docFile = new DocumentFile();
+    if(!docFile->setJavaSource(env, source, (unsigned long)size, (int)readAheadBytes)){
+        env->ExceptionClear();
+        LOGE("Document source has no read method");
         delete docFile;
-        LOGE("%s", msg);
-        LOGE("Last Error: %ld", FPDF_GetLastError());
+        return -1;
+    }
 
+    return loadDocumentInternal(docFile, NULL);
+}
+
+JNI_FUNC(jlong, PdfiumCore, nativeOpenGrowingDocument)(JNI_ARGS, jint fd, jlong finalSize,
+                                                       jint readAheadBytes){
+    LibraryLock lock;
+    if(finalSize <= 0 || (unsigned long long)finalSize > (unsigned long long)(unsigned long)-1){
+        LOGE("Invalid document size: %lld", (long long)finalSize);
+        return -1;
+    }
+
+    DocumentFile *docFile = new DocumentFile();
+    docFile->setGrowingFile((int)fd, (unsigned long)finalSize, (int)readAheadBytes);
+    if(!docFile->isGrowing()){
+        LOGE("Creating availability provider failed");
+        delete docFile;
         return -1;
     }
+    //Loaded later by nativeLoadIfAvailable(), once the data needed has arrived
+    return reinterpret_cast<jlong>(docFile);
+}
+
+JNI_FUNC(jboolean, PdfiumCore, nativeLoadIfAvailable)(JNI_ARGS, jlong documentPtr){
+    LibraryLock lock;
+    DocumentFile *doc = reinterpret_cast<DocumentFile*>(documentPtr);
+    return doc->loadIfAvailable() ? JNI_TRUE : JNI_FALSE;
+}
+
+/**
+ * Check the pages not available yet, and fill in the size of those that became available.
+ * @return the number of pages that became available
+ */
+JNI_FUNC(jint, PdfiumCore, nativeUpdatePageAvailability)(JNI_ARGS, jlong documentPtr,
+                                                         jbooleanArray available, jfloatArray sizes){
+    LibraryLock lock;
+    DocumentFile *doc = reinterpret_cast<DocumentFile*>(documentPtr);
+    int count = (int)(env -> GetArrayLength(available));
+    if(doc->pdfDocument == NULL || env -> GetArrayLength(sizes) != count * 2) return 0;
+
+    jboolean *flags = env -> GetBooleanArrayElements(available, NULL);
+    jfloat *pageSizes = env -> GetFloatArrayElements(sizes, NULL);
+    int added = 0;
+    int i;
+    for(i = 0; i < count; i++){
+        if(flags[i] || !doc->isPageAvailable(i)) continue;
+        double width, height;
+        if(!FPDF_GetPageSizeByIndex(doc->pdfDocument, i, &width, &height)) continue;
+        flags[i] = JNI_TRUE;
+        pageSizes[i * 2] = (jfloat)width;
+        pageSizes[i * 2 + 1] = (jfloat)height;
+        added++;
+    }
+    env -> ReleaseBooleanArrayElements(available, flags, 0);
+    env -> ReleaseFloatArrayElements(sizes, pageSizes, 0);
+    return (jint)added;
 }
 
 JNI_FUNC(jint, PdfiumCore, nativeGetPageCount)(JNI_ARGS, jlong documentPtr){
+    LibraryLock lock;
     DocumentFile *doc = reinterpret_cast<DocumentFile*>(documentPtr);
     return (jint)FPDF_GetPageCount(doc->pdfDocument);
 }
 
 JNI_FUNC(void, PdfiumCore, nativeCloseDocument)(JNI_ARGS, jlong documentPtr){
+    LibraryLock lock;
     DocumentFile *doc = reinterpret_cast<DocumentFile*>(documentPtr);
     delete doc;
 }
 
+FPDF_DOCUMENT documentOf(jlong docPtr){
+    DocumentFile *doc = reinterpret_cast<DocumentFile*>(docPtr);
+    return doc != NULL ? doc->pdfDocument : NULL;
+}
+
+FPDF_PAGE loadTransientPage(jlong docPtr, int pageIndex){
+    DocumentFile *doc = reinterpret_cast<DocumentFile*>(docPtr);
+    if(doc == NULL || doc->pdfDocument == NULL || !doc->isPageAvailable(pageIndex)) return NULL;
+    return FPDF_LoadPage(doc->pdfDocument, pageIndex);
+}
+
 static jlong loadPageInternal(DocumentFile *doc, int pageIndex){
     try{
         if(doc == NULL) throw "Get page document null";
 
         FPDF_DOCUMENT pdfDoc = doc->pdfDocument;
         if(pdfDoc != NULL){
+            if(!doc->isPageAvailable(pageIndex)) return 0;
             return reinterpret_cast<jlong>( FPDF_LoadPage(pdfDoc, pageIndex) );
         }else{
             throw "Get page pdf document null";
@@ -143,10 +715,12 @@ static jlong loadPageInternal(DocumentFile *doc, int pageIndex){
 static void closePageInternal(jlong pagePtr) { FPDF_ClosePage(reinterpret_cast<FPDF_PAGE>(pagePtr)); }
 
 JNI_FUNC(jlong, PdfiumCore, nativeLoadPage)(JNI_ARGS, jlong docPtr, jint pageIndex){
+    LibraryLock lock;
     DocumentFile *doc = reinterpret_cast<DocumentFile*>(docPtr);
     return loadPageInternal(doc, (int)pageIndex);
 }
 JNI_FUNC(jlongArray, PdfiumCore, nativeLoadPages)(JNI_ARGS, jlong docPtr, jint fromIndex, jint toIndex){
+    LibraryLock lock;
     DocumentFile *doc = reinterpret_cast<DocumentFile*>(docPtr);
 
     if(toIndex < fromIndex) return NULL;
@@ -163,8 +737,12 @@ JNI_FUNC(jlongArray, PdfiumCore, nativeLoadPages)(JNI_ARGS, jlong docPtr, jint f
     return javaPages;
 }
 
-JNI_FUNC(void, PdfiumCore, nativeClosePage)(JNI_ARGS, jlong pagePtr){ closePageInternal(pagePtr); }
+JNI_FUNC(void, PdfiumCore, nativeClosePage)(JNI_ARGS, jlong pagePtr){
+    LibraryLock lock;
+    closePageInternal(pagePtr);
+}
 JNI_FUNC(void, PdfiumCore, nativeClosePages)(JNI_ARGS, jlongArray pagesPtr){
+    LibraryLock lock;
     int length = (int)(env -> GetArrayLength(pagesPtr));
     jlong *pages = env -> GetLongArrayElements(pagesPtr, NULL);
 
@@ -172,24 +750,68 @@ JNI_FUNC(void, PdfiumCore, nativeClosePages)(JNI_ARGS, jlongArray pagesPtr){
     for(i = 0; i < length; i++){ closePageInternal(pages[i]); }
 }
 
-JNI_FUNC(jint, PdfiumCore, nativeGetPageWidthPixel)(JNI_ARGS, jlong pagePtr, jint dpi){
-    FPDF_PAGE page = reinterpret_cast<FPDF_PAGE>(pagePtr);
-    return (jint)(FPDF_GetPageWidth(page) * dpi / 72);
+JNI_FUNC(jfloatArray, PdfiumCore, nativeGetPageSizes)(JNI_ARGS, jlong docPtr){
+    LibraryLock lock;
+    DocumentFile *doc = reinterpret_cast<DocumentFile*>(docPtr);
+    if(doc == NULL || doc->pdfDocument == NULL) return NULL;
+
+    int pageCount = FPDF_GetPageCount(doc->pdfDocument);
+    jfloatArray javaSizes = env -> NewFloatArray( (jsize)(pageCount * 2) );
+    if(javaSizes == NULL) return NULL;
+
+    //Width and height in points of every page, read from the page tree without parsing content
+    jfloat *sizes = env -> GetFloatArrayElements(javaSizes, NULL);
+    double width, height;
+    int i;
+    for(i = 0; i < pageCount; i++){
+        if(FPDF_GetPageSizeByIndex(doc->pdfDocument, i, &width, &height)){
+            sizes[2 * i] = (jfloat)width;
+            sizes[2 * i + 1] = (jfloat)height;
+        }else{
+            LOGE("Error getting size of page %d", i);
+            sizes[2 * i] = 0;
+            sizes[2 * i + 1] = 0;
+        }
+    }
+    env -> ReleaseFloatArrayElements(javaSizes, sizes, 0);
+
+    return javaSizes;
 }
-JNI_FUNC(jint, PdfiumCore, nativeGetPageHeightPixel)(JNI_ARGS, jlong pagePtr, jint dpi){
-    FPDF_PAGE page = reinterpret_cast<FPDF_PAGE>(pagePtr);
-    return (jint)(FPDF_GetPageHeight(page) * dpi / 72);
+
+static FPDF_BOOL needToPauseNow(IFSDK_PAUSE *pThis){
+    RenderPause *pause = static_cast<RenderPause*>(pThis);
+    return pause->env->CallBooleanMethod(pause->signal, pause->isCanceled) ? 1 : 0;
+}
+
+bool initRenderPause(JNIEnv *env, jobject signal, RenderPause *pause){
+    jclass signalClass = env->GetObjectClass(signal);
+    jmethodID isCanceled = env->GetMethodID(signalClass, "isCanceled", "()Z");
+    env->DeleteLocalRef(signalClass);
+    if(isCanceled == NULL) return false;
+
+    pause->version = 1;
+    pause->NeedToPauseNow = needToPauseNow;
+    pause->user = NULL;
+    pause->env = env;
+    pause->signal = signal;
+    pause->isCanceled = isCanceled;
+    return true;
 }
 
-static void renderPageInternal( FPDF_PAGE page,
-                                ANativeWindow_Buffer *windowBuffer,
-                                int startX, int startY,
-                                int canvasHorSize, int canvasVerSize,
-                                int drawSizeHor, int drawSizeVer){
+bool renderPageInternal( FPDF_PAGE page,
+                         void *bits, int stride,
+                         int startX, int startY,
+                         int canvasHorSize, int canvasVerSize,
+                         int drawSizeHor, int drawSizeVer,
+                         int flags, IFSDK_PAUSE *pause){
+    flags |= FPDF_REVERSE_BYTE_ORDER;
 
-    FPDF_BITMAP pdfBitmap = FPDFBitmap_CreateEx( canvasHorSize, canvasVerSize,
-                                                 FPDFBitmap_BGRA,
-                                                 windowBuffer->bits, (int)(windowBuffer->stride) * 4);
+    bool pooled;
+    FPDF_BITMAP pdfBitmap = acquireBitmap(bits, canvasHorSize, canvasVerSize, stride, &pooled);
+    if(pdfBitmap == NULL){
+        LOGE("Creating bitmap failed");
+        return false;
+    }
 
     LOGD("Start X: %d", startX);
     LOGD("Start Y: %d", startY);
@@ -203,56 +825,607 @@ static void renderPageInternal( FPDF_PAGE page,
                              0x84, 0x84, 0x84, 255); //Gray
     }
 
-    int baseHorSize = (canvasHorSize < drawSizeHor)? canvasHorSize : drawSizeHor;
-    int baseVerSize = (canvasVerSize < drawSizeVer)? canvasVerSize : drawSizeVer;
+    //Only the part of the canvas actually covered by the page gets a white background
     int baseX = (startX < 0)? 0 : startX;
     int baseY = (startY < 0)? 0 : startY;
-    FPDFBitmap_FillRect( pdfBitmap, baseX, baseY, baseHorSize, baseVerSize,
-                         255, 255, 255, 255); //White
+    int baseRight = (startX + drawSizeHor < canvasHorSize)? startX + drawSizeHor : canvasHorSize;
+    int baseBottom = (startY + drawSizeVer < canvasVerSize)? startY + drawSizeVer : canvasVerSize;
+    if(baseRight > baseX && baseBottom > baseY){
+        FPDFBitmap_FillRect( pdfBitmap, baseX, baseY, baseRight - baseX, baseBottom - baseY,
+                             255, 255, 255, 255); //White
+    }
+
+    if(pause == NULL){
+        FPDF_RenderPageBitmap( pdfBitmap, page,
+                               startX, startY,
+                               drawSizeHor, drawSizeVer,
+                               0, flags );
+        releaseBitmap(pdfBitmap, pooled);
+        return true;
+    }
+
+    int status = FPDF_RenderPageBitmap_Start( pdfBitmap, page,
+                                              startX, startY,
+                                              drawSizeHor, drawSizeVer,
+                                              0, flags, pause );
+    while(status == FPDF_RENDER_TOBECOUNTINUED){
+        if(pause->NeedToPauseNow(pause)){
+            LOGD("Render cancelled");
+            break;
+        }
+        status = FPDF_RenderPage_Continue(page, pause);
+    }
+    FPDF_RenderPage_Close(page);
+    releaseBitmap(pdfBitmap, pooled);
 
-    FPDF_RenderPageBitmap( pdfBitmap, page,
-                           startX, startY,
-                           drawSizeHor, drawSizeVer,
-                           0, FPDF_REVERSE_BYTE_ORDER );
+    return status == FPDF_RENDER_DONE;
 }
 
-JNI_FUNC(void, PdfiumCore, nativeRenderPage)(JNI_ARGS, jlong pagePtr, jobject objSurface,
-                                             jint dpi, jint startX, jint startY,
-                                             jint drawSizeHor, jint drawSizeVer){
-    ANativeWindow *nativeWindow = ANativeWindow_fromSurface(env, objSurface);
-    if(nativeWindow == NULL){
-        LOGE("native window pointer null");
-        return;
+/**
+ * Render into a direct buffer, without android.graphics, e.g. on a host JVM.
+ * Pixels are RGBA, 4 bytes each, rows stride bytes apart.
+ * @return false if the buffer is too small or the render failed
+ */
+JNI_FUNC(jboolean, PdfiumCore, nativeRenderPageBuffer)(JNI_ARGS, jlong pagePtr, jobject buffer,
+                                                       jint width, jint height, jint stride,
+                                                       jint startX, jint startY,
+                                                       jint drawSizeHor, jint drawSizeVer, jint flags){
+    LibraryLock lock;
+    FPDF_PAGE page = reinterpret_cast<FPDF_PAGE>(pagePtr);
+    void *pixels = env -> GetDirectBufferAddress(buffer);
+    jlong capacity = env -> GetDirectBufferCapacity(buffer);
+    if(page == NULL || pixels == NULL || width <= 0 || height <= 0 || stride < width * 4
+       || capacity < (jlong)stride * height){
+        LOGE("Invalid render buffer");
+        return JNI_FALSE;
+    }
+    return renderPageInternal(page, pixels, (int)stride,
+                              (int)startX, (int)startY,
+                              (int)width, (int)height,
+                              (int)drawSizeHor, (int)drawSizeVer, (int)flags, NULL) ? JNI_TRUE : JNI_FALSE;
+}
+
+/** @return hits, misses, evictions and handles pooled */
+JNI_FUNC(jlongArray, PdfiumCore, nativeGetBitmapPoolStats)(JNI_ARGS){
+    jlong stats[4];
+    {
+        Mutex::Autolock lock(sBitmapPoolLock);
+        stats[0] = sBitmapPoolHits;
+        stats[1] = sBitmapPoolMisses;
+        stats[2] = sBitmapPoolEvictions;
+        stats[3] = 0;
+        int i;
+        for(i = 0; i < BITMAP_POOL_SIZE; i++){
+            if(sBitmapPool[i].bitmap != NULL) stats[3]++;
+        }
     }
+
+    jlongArray javaStats = env -> NewLongArray(4);
+    if(javaStats == NULL) return NULL;
+    env -> SetLongArrayRegion(javaStats, 0, 4, stats);
+    return javaStats;
+}
+
+/*
+ * Text. Text pages are loaded from open pages and must be closed before them,
+ * which PdfiumCore takes care of. Results come back as strings and flat float arrays,
+ * never as an object per character.
+ */
+
+JNI_FUNC(jlong, PdfiumCore, nativeLoadTextPage)(JNI_ARGS, jlong pagePtr){
+    LibraryLock lock;
     FPDF_PAGE page = reinterpret_cast<FPDF_PAGE>(pagePtr);
+    if(page == NULL) return 0;
+    return reinterpret_cast<jlong>(FPDFText_LoadPage(page));
+}
 
-    if(page == NULL || nativeWindow == NULL){
-        LOGE("Render page pointers invalid");
-        return;
+JNI_FUNC(void, PdfiumCore, nativeCloseTextPage)(JNI_ARGS, jlong textPagePtr){
+    LibraryLock lock;
+    FPDFText_ClosePage(reinterpret_cast<FPDF_TEXTPAGE>(textPagePtr));
+}
+
+JNI_FUNC(jint, PdfiumCore, nativeTextCountChars)(JNI_ARGS, jlong textPagePtr){
+    LibraryLock lock;
+    return (jint)FPDFText_CountChars(reinterpret_cast<FPDF_TEXTPAGE>(textPagePtr));
+}
+
+static jstring getTextInternal(JNIEnv *env, FPDF_TEXTPAGE textPage, int start, int count){
+    int charCount = FPDFText_CountChars(textPage);
+    if(start < 0 || start > charCount) return NULL;
+    if(count < 0 || start + count > charCount) count = charCount - start;
+
+    //UTF-16, plus the terminating 0 pdfium writes
+    unsigned short *buffer = (unsigned short*)malloc((count + 1) * sizeof(unsigned short));
+    if(buffer == NULL) return NULL;
+    int written = FPDFText_GetText(textPage, start, count, buffer);
+    jstring text = env -> NewString((const jchar*)buffer, written > 0 ? written - 1 : 0);
+    free(buffer);
+    return text;
+}
+
+/** @param count characters to read from start, -1 for the rest of the page */
+JNI_FUNC(jstring, PdfiumCore, nativeTextGetText)(JNI_ARGS, jlong textPagePtr, jint start, jint count){
+    LibraryLock lock;
+    return getTextInternal(env, reinterpret_cast<FPDF_TEXTPAGE>(textPagePtr), (int)start, (int)count);
+}
+
+/**
+ * Full text of several pages for indexing: open text pages are used when given,
+ * otherwise pages are loaded for the call and closed right after.
+ */
+JNI_FUNC(jobjectArray, PdfiumCore, nativeGetPagesText)(JNI_ARGS, jlong docPtr, jintArray pageIndices,
+                                                       jlongArray pagesPtr, jlongArray textPagesPtr){
+    LibraryLock lock;
+    DocumentFile *doc = reinterpret_cast<DocumentFile*>(docPtr);
+    int count = (int)(env -> GetArrayLength(pageIndices));
+    if(doc == NULL || doc->pdfDocument == NULL
+       || env -> GetArrayLength(pagesPtr) != count
+       || env -> GetArrayLength(textPagesPtr) != count){
+        LOGE("Invalid batch text arguments");
+        return NULL;
     }
 
-    if(ANativeWindow_getFormat(nativeWindow) != WINDOW_FORMAT_RGBA_8888){
-        LOGD("Set format to RGBA_8888");
-        ANativeWindow_setBuffersGeometry( nativeWindow,
-                                          ANativeWindow_getWidth(nativeWindow),
-                                          ANativeWindow_getHeight(nativeWindow),
-                                          WINDOW_FORMAT_RGBA_8888 );
+    jclass stringClass = env -> FindClass("java/lang/String");
+    jobjectArray texts = env -> NewObjectArray(count, stringClass, NULL);
+    env -> DeleteLocalRef(stringClass);
+    if(texts == NULL) return NULL;
+
+    jint *indices = env -> GetIntArrayElements(pageIndices, NULL);
+    jlong *pages = env -> GetLongArrayElements(pagesPtr, NULL);
+    jlong *textPages = env -> GetLongArrayElements(textPagesPtr, NULL);
+
+    int i;
+    for(i = 0; i < count; i++){
+        FPDF_TEXTPAGE textPage = reinterpret_cast<FPDF_TEXTPAGE>(textPages[i]);
+        FPDF_PAGE page = reinterpret_cast<FPDF_PAGE>(pages[i]);
+        bool transientPage = false;
+        bool transientText = (textPage == NULL);
+        if(transientText){
+            if(page == NULL){
+                page = loadTransientPage(docPtr, (int)indices[i]);
+                transientPage = true;
+            }
+            textPage = page != NULL ? FPDFText_LoadPage(page) : NULL;
+        }
+        if(textPage != NULL){
+            jstring text = getTextInternal(env, textPage, 0, -1);
+            env -> SetObjectArrayElement(texts, i, text);
+            env -> DeleteLocalRef(text);
+        }else{
+            LOGE("Loading text of page %d failed", (int)indices[i]);
+        }
+        if(transientText && textPage != NULL) FPDFText_ClosePage(textPage);
+        if(transientPage && page != NULL) FPDF_ClosePage(page);
     }
 
-    ANativeWindow_Buffer buffer;
-    int ret;
-    if( (ret = ANativeWindow_lock(nativeWindow, &buffer, NULL)) != 0 ){
-        LOGE("Locking native window failed: %s", strerror(ret * -1));
-        return;
+    env -> ReleaseIntArrayElements(pageIndices, indices, JNI_ABORT);
+    env -> ReleaseLongArrayElements(pagesPtr, pages, JNI_ABORT);
+    env -> ReleaseLongArrayElements(textPagesPtr, textPages, JNI_ABORT);
+    return texts;
+}
+
+/** @return left, top, right, bottom of each character, in page points with y up */
+JNI_FUNC(jfloatArray, PdfiumCore, nativeTextGetCharBoxes)(JNI_ARGS, jlong textPagePtr,
+                                                          jint start, jint count){
+    LibraryLock lock;
+    FPDF_TEXTPAGE textPage = reinterpret_cast<FPDF_TEXTPAGE>(textPagePtr);
+    int charCount = FPDFText_CountChars(textPage);
+    if(start < 0 || start > charCount) return NULL;
+    if(count < 0 || start + count > charCount) count = charCount - start;
+
+    jfloatArray javaBoxes = env -> NewFloatArray(count * 4);
+    if(javaBoxes == NULL) return NULL;
+    jfloat *boxes = env -> GetFloatArrayElements(javaBoxes, NULL);
+    double left, right, bottom, top;
+    int i;
+    for(i = 0; i < count; i++){
+        FPDFText_GetCharBox(textPage, start + i, &left, &right, &bottom, &top);
+        boxes[i * 4] = (jfloat)left;
+        boxes[i * 4 + 1] = (jfloat)top;
+        boxes[i * 4 + 2] = (jfloat)right;
+        boxes[i * 4 + 3] = (jfloat)bottom;
     }
+    env -> ReleaseFloatArrayElements(javaBoxes, boxes, 0);
+    return javaBoxes;
+}
 
-    renderPageInternal(page, &buffer,
-                       (int)startX, (int)startY,
-                       buffer.width, buffer.height,
-                       (int)drawSizeHor, (int)drawSizeVer);
+/** @return rectangles covering a range of text, lines merged; left, top, right, bottom each */
+JNI_FUNC(jfloatArray, PdfiumCore, nativeTextGetRects)(JNI_ARGS, jlong textPagePtr,
+                                                      jint start, jint count){
+    LibraryLock lock;
+    FPDF_TEXTPAGE textPage = reinterpret_cast<FPDF_TEXTPAGE>(textPagePtr);
+    int rectCount = FPDFText_CountRects(textPage, (int)start, (int)count);
+    if(rectCount < 0) rectCount = 0;
 
-    ANativeWindow_unlockAndPost(nativeWindow);
-    ANativeWindow_release(nativeWindow);
+    jfloatArray javaRects = env -> NewFloatArray(rectCount * 4);
+    if(javaRects == NULL) return NULL;
+    jfloat *rects = env -> GetFloatArrayElements(javaRects, NULL);
+    double left, top, right, bottom;
+    int i;
+    for(i = 0; i < rectCount; i++){
+        FPDFText_GetRect(textPage, i, &left, &top, &right, &bottom);
+        rects[i * 4] = (jfloat)left;
+        rects[i * 4 + 1] = (jfloat)top;
+        rects[i * 4 + 2] = (jfloat)right;
+        rects[i * 4 + 3] = (jfloat)bottom;
+    }
+    env -> ReleaseFloatArrayElements(javaRects, rects, 0);
+    return javaRects;
+}
+
+JNI_FUNC(jint, PdfiumCore, nativeTextGetCharIndexAtPos)(JNI_ARGS, jlong textPagePtr,
+                                                        jdouble x, jdouble y,
+                                                        jdouble xTolerance, jdouble yTolerance){
+    LibraryLock lock;
+    return (jint)FPDFText_GetCharIndexAtPos(reinterpret_cast<FPDF_TEXTPAGE>(textPagePtr),
+                                            x, y, xTolerance, yTolerance);
+}
+
+JNI_FUNC(jstring, PdfiumCore, nativeTextGetBoundedText)(JNI_ARGS, jlong textPagePtr,
+                                                        jdouble left, jdouble top,
+                                                        jdouble right, jdouble bottom){
+    LibraryLock lock;
+    FPDF_TEXTPAGE textPage = reinterpret_cast<FPDF_TEXTPAGE>(textPagePtr);
+    int length = FPDFText_GetBoundedText(textPage, left, top, right, bottom, NULL, 0);
+    if(length <= 0) return env -> NewStringUTF("");
+
+    unsigned short *buffer = (unsigned short*)malloc((length + 1) * sizeof(unsigned short));
+    if(buffer == NULL) return NULL;
+    int written = FPDFText_GetBoundedText(textPage, left, top, right, bottom, buffer, length);
+    jstring text = env -> NewString((const jchar*)buffer, written > 0 ? written : 0);
+    free(buffer);
+    return text;
+}
+
+/**
+ * Find a string in one page, for the background search: the open text page is used when
+ * given, otherwise the page and its text are loaded for the call and closed right after.
+ * @param withText also return the page text, to index it
+ * @return { int[] start, count and rect count of each hit, float[] left, top, right, bottom
+ *         of the rects of every hit in order, String page text or null }; NULL on failure
+ */
+JNI_FUNC(jobjectArray, PdfiumCore, nativeSearchPage)(JNI_ARGS, jlong docPtr, jint pageIndex,
+                                                     jlong pagePtr, jlong textPagePtr,
+                                                     jstring query, jint flags, jboolean withText){
+    LibraryLock lock;
+    DocumentFile *doc = reinterpret_cast<DocumentFile*>(docPtr);
+    if(doc == NULL || doc->pdfDocument == NULL) return NULL;
+
+    FPDF_PAGE page = reinterpret_cast<FPDF_PAGE>(pagePtr);
+    FPDF_TEXTPAGE textPage = reinterpret_cast<FPDF_TEXTPAGE>(textPagePtr);
+    bool transientPage = false;
+    bool transientText = (textPage == NULL);
+    if(transientText){
+        if(page == NULL){
+            page = loadTransientPage(docPtr, (int)pageIndex);
+            transientPage = true;
+        }
+        textPage = page != NULL ? FPDFText_LoadPage(page) : NULL;
+    }
+    if(textPage == NULL){
+        LOGE("Loading text of page %d failed", (int)pageIndex);
+        if(transientPage && page != NULL) FPDF_ClosePage(page);
+        return NULL;
+    }
+
+    //FPDF_WIDESTRING is 0 terminated UTF-16
+    jsize queryLength = env -> GetStringLength(query);
+    unsigned short *pattern = (unsigned short*)malloc((queryLength + 1) * sizeof(unsigned short));
+    int hitCount = 0, hitCapacity = 16;
+    int rectCount = 0, rectCapacity = 16;
+    jint *hits = (jint*)malloc(hitCapacity * 3 * sizeof(jint));
+    jfloat *rects = (jfloat*)malloc(rectCapacity * 4 * sizeof(jfloat));
+    bool failed = (pattern == NULL || hits == NULL || rects == NULL);
+
+    if(!failed){
+        env -> GetStringRegion(query, 0, queryLength, (jchar*)pattern);
+        pattern[queryLength] = 0;
+
+        FPDF_SCHHANDLE search = FPDFText_FindStart(textPage, pattern, (unsigned long)flags, 0);
+        while(search != NULL && FPDFText_FindNext(search)){
+            int start = FPDFText_GetSchResultIndex(search);
+            int count = FPDFText_GetSchCount(search);
+            int hitRects = FPDFText_CountRects(textPage, start, count);
+            if(hitRects < 0) hitRects = 0;
+
+            if(hitCount == hitCapacity){
+                hitCapacity *= 2;
+                jint *grown = (jint*)realloc(hits, hitCapacity * 3 * sizeof(jint));
+                if(grown == NULL){ failed = true; break; }
+                hits = grown;
+            }
+            if(rectCount + hitRects > rectCapacity){
+                while(rectCount + hitRects > rectCapacity) rectCapacity *= 2;
+                jfloat *grown = (jfloat*)realloc(rects, rectCapacity * 4 * sizeof(jfloat));
+                if(grown == NULL){ failed = true; break; }
+                rects = grown;
+            }
+
+            hits[hitCount * 3] = start;
+            hits[hitCount * 3 + 1] = count;
+            hits[hitCount * 3 + 2] = hitRects;
+            hitCount++;
+            int i;
+            double left, top, right, bottom;
+            for(i = 0; i < hitRects; i++){
+                FPDFText_GetRect(textPage, i, &left, &top, &right, &bottom);
+                jfloat *rect = rects + (rectCount + i) * 4;
+                rect[0] = (jfloat)left;
+                rect[1] = (jfloat)top;
+                rect[2] = (jfloat)right;
+                rect[3] = (jfloat)bottom;
+            }
+            rectCount += hitRects;
+        }
+        if(search != NULL) FPDFText_FindClose(search);
+    }
+
+    jobjectArray result = NULL;
+    if(!failed){
+        jintArray javaHits = env -> NewIntArray(hitCount * 3);
+        jfloatArray javaRects = env -> NewFloatArray(rectCount * 4);
+        jstring text = withText ? getTextInternal(env, textPage, 0, -1) : NULL;
+        jclass objectClass = env -> FindClass("java/lang/Object");
+        if(javaHits != NULL && javaRects != NULL && objectClass != NULL){
+            env -> SetIntArrayRegion(javaHits, 0, hitCount * 3, hits);
+            env -> SetFloatArrayRegion(javaRects, 0, rectCount * 4, rects);
+            result = env -> NewObjectArray(3, objectClass, NULL);
+            if(result != NULL){
+                env -> SetObjectArrayElement(result, 0, javaHits);
+                env -> SetObjectArrayElement(result, 1, javaRects);
+                env -> SetObjectArrayElement(result, 2, text);
+            }
+        }
+        if(objectClass != NULL) env -> DeleteLocalRef(objectClass);
+    }else{
+        LOGE("Searching page %d failed", (int)pageIndex);
+    }
+
+    free(pattern);
+    free(hits);
+    free(rects);
+    if(transientText) FPDFText_ClosePage(textPage);
+    if(transientPage) FPDF_ClosePage(page);
+    return result;
+}
+
+/*
+ * Navigation: outline and links. Like text, results are flat arrays, one JNI call per
+ * outline level or per page.
+ */
+
+/** @return the page a destination, or else a go-to action, leads to; -1 if none */
+static jint getTargetPageInternal(FPDF_DOCUMENT document, FPDF_DEST dest, FPDF_ACTION action){
+    if(dest == NULL && action != NULL && FPDFAction_GetType(action) == PDFACTION_GOTO){
+        dest = FPDFAction_GetDest(document, action);
+    }
+    if(dest == NULL) return -1;
+    unsigned long pageIndex = FPDFDest_GetPageIndex(document, dest);
+    return pageIndex < (unsigned long)FPDF_GetPageCount(document) ? (jint)pageIndex : -1;
+}
+
+/** @return the URI of a URI action, NULL for other actions */
+static jstring getURIInternal(JNIEnv *env, FPDF_DOCUMENT document, FPDF_ACTION action){
+    if(action == NULL || FPDFAction_GetType(action) != PDFACTION_URI) return NULL;
+    unsigned long length = FPDFAction_GetURIPath(document, action, NULL, 0);
+    if(length == 0) return NULL;
+    char *buffer = (char*)malloc(length);
+    if(buffer == NULL) return NULL;
+    FPDFAction_GetURIPath(document, action, buffer, length);
+    buffer[length - 1] = 0;
+    //Should be 7-bit ASCII, but NewStringUTF aborts on invalid modified UTF-8
+    unsigned long i;
+    for(i = 0; buffer[i] != 0; i++){
+        if((unsigned char)buffer[i] >= 0x80) buffer[i] = '?';
+    }
+    jstring uri = env -> NewStringUTF(buffer);
+    free(buffer);
+    return uri;
+}
+
+JNI_FUNC(jint, PdfiumCore, nativeFindBookmark)(JNI_ARGS, jlong docPtr, jstring title){
+    LibraryLock lock;
+    DocumentFile *doc = reinterpret_cast<DocumentFile*>(docPtr);
+    if(doc == NULL || doc->pdfDocument == NULL) return -1;
+
+    jsize titleLength = env -> GetStringLength(title);
+    unsigned short *buffer = (unsigned short*)malloc((titleLength + 1) * sizeof(unsigned short));
+    if(buffer == NULL) return -1;
+    env -> GetStringRegion(title, 0, titleLength, (jchar*)buffer);
+    buffer[titleLength] = 0;
+
+    jint pageIndex = -1;
+    FPDF_BOOKMARK bookmark = FPDFBookmark_Find(doc->pdfDocument, buffer);
+    if(bookmark != NULL){
+        pageIndex = getTargetPageInternal(doc->pdfDocument,
+                                          FPDFBookmark_GetDest(doc->pdfDocument, bookmark),
+                                          FPDFBookmark_GetAction(bookmark));
+    }
+    free(buffer);
+    return pageIndex;
+}
+
+#ifdef PDFIUM_OUTLINE_TREE
+/** Entries of one level, so a corrupt sibling chain that loops can't hang us */
+static const int MAX_OUTLINE_LEVEL_SIZE = 65536;
+
+static jstring getBookmarkTitleInternal(JNIEnv *env, FPDF_BOOKMARK bookmark){
+    //Bytes of UTF-16LE, with the terminating 0
+    unsigned long length = FPDFBookmark_GetTitle(bookmark, NULL, 0);
+    if(length < 2) return env -> NewStringUTF("");
+    unsigned short *buffer = (unsigned short*)malloc(length);
+    if(buffer == NULL) return NULL;
+    FPDFBookmark_GetTitle(bookmark, buffer, length);
+    jstring title = env -> NewString((const jchar*)buffer, (jsize)(length / 2 - 1));
+    free(buffer);
+    return title;
+}
+#endif
+
+/**
+ * One level of the outline: the children of a bookmark, or the top level for 0. Bookmark
+ * handles stay valid as long as the document is open.
+ * @return { long[] handle, int[] target page or -1, boolean[] has children, String[] title }
+ *         of each entry; NULL when outline traversal isn't supported or on failure
+ */
+JNI_FUNC(jobjectArray, PdfiumCore, nativeGetOutlineLevel)(JNI_ARGS, jlong docPtr, jlong parentPtr){
+#ifdef PDFIUM_OUTLINE_TREE
+    LibraryLock lock;
+    DocumentFile *doc = reinterpret_cast<DocumentFile*>(docPtr);
+    if(doc == NULL || doc->pdfDocument == NULL) return NULL;
+    FPDF_DOCUMENT document = doc->pdfDocument;
+
+    int count = 0;
+    FPDF_BOOKMARK first = FPDFBookmark_GetFirstChild(document, reinterpret_cast<FPDF_BOOKMARK>(parentPtr));
+    FPDF_BOOKMARK bookmark;
+    for(bookmark = first; bookmark != NULL && count < MAX_OUTLINE_LEVEL_SIZE;
+        bookmark = FPDFBookmark_GetNextSibling(document, bookmark)){
+        if(count > 0 && bookmark == first) break;
+        count++;
+    }
+
+    jlong *handles = (jlong*)malloc((count + 1) * sizeof(jlong));
+    jint *pages = (jint*)malloc((count + 1) * sizeof(jint));
+    jboolean *hasChildren = (jboolean*)malloc((count + 1) * sizeof(jboolean));
+    jclass stringClass = env -> FindClass("java/lang/String");
+    jclass objectClass = env -> FindClass("java/lang/Object");
+    jobjectArray titles = stringClass != NULL ? env -> NewObjectArray(count, stringClass, NULL) : NULL;
+    jobjectArray result = NULL;
+
+    if(handles != NULL && pages != NULL && hasChildren != NULL && titles != NULL && objectClass != NULL){
+        int i;
+        for(i = 0, bookmark = first; i < count; i++, bookmark = FPDFBookmark_GetNextSibling(document, bookmark)){
+            handles[i] = reinterpret_cast<jlong>(bookmark);
+            pages[i] = getTargetPageInternal(document, FPDFBookmark_GetDest(document, bookmark),
+                                             FPDFBookmark_GetAction(bookmark));
+            hasChildren[i] = FPDFBookmark_GetFirstChild(document, bookmark) != NULL;
+            jstring title = getBookmarkTitleInternal(env, bookmark);
+            env -> SetObjectArrayElement(titles, i, title);
+            if(title != NULL) env -> DeleteLocalRef(title);
+        }
+
+        jlongArray javaHandles = env -> NewLongArray(count);
+        jintArray javaPages = env -> NewIntArray(count);
+        jbooleanArray javaHasChildren = env -> NewBooleanArray(count);
+        if(javaHandles != NULL && javaPages != NULL && javaHasChildren != NULL){
+            env -> SetLongArrayRegion(javaHandles, 0, count, handles);
+            env -> SetIntArrayRegion(javaPages, 0, count, pages);
+            env -> SetBooleanArrayRegion(javaHasChildren, 0, count, hasChildren);
+            result = env -> NewObjectArray(4, objectClass, NULL);
+            if(result != NULL){
+                env -> SetObjectArrayElement(result, 0, javaHandles);
+                env -> SetObjectArrayElement(result, 1, javaPages);
+                env -> SetObjectArrayElement(result, 2, javaHasChildren);
+                env -> SetObjectArrayElement(result, 3, titles);
+            }
+        }
+    }else{
+        LOGE("Reading outline failed");
+    }
+
+    free(handles);
+    free(pages);
+    free(hasChildren);
+    if(stringClass != NULL) env -> DeleteLocalRef(stringClass);
+    if(objectClass != NULL) env -> DeleteLocalRef(objectClass);
+    return result;
+#else
+    return NULL;
+#endif
+}
+
+/**
+ * Link annotations of a page. The open page is used when given, otherwise the page is
+ * loaded for the call and closed right after.
+ * @return { float[] left, top, right, bottom of each link in page points, int[] target page
+ *         or -1, String[] URI or null }; NULL on failure
+ */
+JNI_FUNC(jobjectArray, PdfiumCore, nativeGetPageLinks)(JNI_ARGS, jlong docPtr, jint pageIndex,
+                                                       jlong pagePtr){
+    LibraryLock lock;
+    DocumentFile *doc = reinterpret_cast<DocumentFile*>(docPtr);
+    if(doc == NULL || doc->pdfDocument == NULL) return NULL;
+    FPDF_DOCUMENT document = doc->pdfDocument;
+
+    FPDF_PAGE page = reinterpret_cast<FPDF_PAGE>(pagePtr);
+    bool transientPage = (page == NULL);
+    if(transientPage){
+        page = loadTransientPage(docPtr, (int)pageIndex);
+        if(page == NULL){
+            LOGE("Loading page %d for its links failed", (int)pageIndex);
+            return NULL;
+        }
+    }
+
+    int count = 0, capacity = 8;
+    FPDF_LINK *links = (FPDF_LINK*)malloc(capacity * sizeof(FPDF_LINK));
+    bool failed = (links == NULL);
+    int position = 0;
+    FPDF_LINK link;
+    while(!failed && FPDFLink_Enumerate(page, &position, &link)){
+        if(count == capacity){
+            capacity *= 2;
+            FPDF_LINK *grown = (FPDF_LINK*)realloc(links, capacity * sizeof(FPDF_LINK));
+            if(grown == NULL){ failed = true; break; }
+            links = grown;
+        }
+        links[count++] = link;
+    }
+
+    jfloat *rects = failed ? NULL : (jfloat*)malloc((count * 4 + 1) * sizeof(jfloat));
+    jint *pages = failed ? NULL : (jint*)malloc((count + 1) * sizeof(jint));
+    jclass stringClass = env -> FindClass("java/lang/String");
+    jclass objectClass = env -> FindClass("java/lang/Object");
+    jobjectArray uris = (stringClass != NULL && !failed) ? env -> NewObjectArray(count, stringClass, NULL) : NULL;
+    jobjectArray result = NULL;
+
+    if(rects != NULL && pages != NULL && uris != NULL && objectClass != NULL){
+        int i;
+        for(i = 0; i < count; i++){
+            FS_RECTF rect;
+            jfloat *out = rects + i * 4;
+            if(FPDFLink_GetAnnotRect(links[i], &rect)){
+                //The Rect entry isn't always normalized
+                out[0] = rect.left < rect.right ? rect.left : rect.right;
+                out[1] = rect.top > rect.bottom ? rect.top : rect.bottom;
+                out[2] = rect.left < rect.right ? rect.right : rect.left;
+                out[3] = rect.top > rect.bottom ? rect.bottom : rect.top;
+            }else{
+                out[0] = out[1] = out[2] = out[3] = 0;
+            }
+            FPDF_ACTION action = FPDFLink_GetAction(links[i]);
+            pages[i] = getTargetPageInternal(document, FPDFLink_GetDest(document, links[i]), action);
+            jstring uri = getURIInternal(env, document, action);
+            if(uri != NULL){
+                env -> SetObjectArrayElement(uris, i, uri);
+                env -> DeleteLocalRef(uri);
+            }
+        }
+
+        jfloatArray javaRects = env -> NewFloatArray(count * 4);
+        jintArray javaPages = env -> NewIntArray(count);
+        if(javaRects != NULL && javaPages != NULL){
+            env -> SetFloatArrayRegion(javaRects, 0, count * 4, rects);
+            env -> SetIntArrayRegion(javaPages, 0, count, pages);
+            result = env -> NewObjectArray(3, objectClass, NULL);
+            if(result != NULL){
+                env -> SetObjectArrayElement(result, 0, javaRects);
+                env -> SetObjectArrayElement(result, 1, javaPages);
+                env -> SetObjectArrayElement(result, 2, uris);
+            }
+        }
+    }else{
+        LOGE("Reading links of page %d failed", (int)pageIndex);
+    }
+
+    free(links);
+    free(rects);
+    free(pages);
+    if(stringClass != NULL) env -> DeleteLocalRef(stringClass);
+    if(objectClass != NULL) env -> DeleteLocalRef(objectClass);
+    if(transientPage) FPDF_ClosePage(page);
+    return result;
 }
 
 }//extern C
+
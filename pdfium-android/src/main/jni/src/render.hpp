@@ -0,0 +1,61 @@
+#ifndef _RENDER_HPP_
+#define _RENDER_HPP_
+
+#include "util.hpp"
+
+#include <fpdfview.h>
+#include <fpdf_progressive.h>
+
+/*
+ * Render core shared by the platform neutral part of the library (mainJNILib.cpp), which also
+ * builds for a host JVM, and the render targets of a platform (androidRender.cpp: windows
+ * and android.graphics.Bitmap).
+ */
+
+/**
+ * Held for the lifetime of the object: the lock every call into pdfium is made under,
+ * see the threading notes in mainJNILib.cpp. Not reentrant.
+ */
+class LibraryLock {
+    public:
+    LibraryLock();
+    ~LibraryLock();
+};
+
+extern "C" {
+
+//Pause interface checking a Java CancellationSignal, valid only on the thread that created it
+struct RenderPause : public IFSDK_PAUSE {
+    JNIEnv *env;
+    jobject signal;
+    jmethodID isCanceled;
+};
+
+bool initRenderPause(JNIEnv *env, jobject signal, RenderPause *pause);
+
+/**
+ * Renders blocking when pause is NULL, progressively otherwise:
+ * the render stops as soon as the pause reports a cancellation. Call with the LibraryLock held.
+ * @param flags FPDF_ANNOT, FPDF_LCD_TEXT, FPDF_GRAYSCALE...; FPDF_REVERSE_BYTE_ORDER is always added
+ * @return false when the render was cancelled or failed
+ */
+bool renderPageInternal( FPDF_PAGE page,
+                         void *bits, int stride,
+                         int startX, int startY,
+                         int canvasHorSize, int canvasVerSize,
+                         int drawSizeHor, int drawSizeVer,
+                         int flags, IFSDK_PAUSE *pause);
+
+/** @return the pdfium document of a document handle, NULL if it isn't open */
+FPDF_DOCUMENT documentOf(jlong docPtr);
+
+/**
+ * Load a page for one call only, closed by the caller with FPDF_ClosePage.
+ * Call with the LibraryLock held.
+ * @return NULL on failure, or if the page of a growing file hasn't arrived yet
+ */
+FPDF_PAGE loadTransientPage(jlong docPtr, int pageIndex);
+
+}//extern C
+
+#endif
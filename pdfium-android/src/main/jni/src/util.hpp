@@ -6,14 +6,24 @@ extern "C" {
     #include <stdlib.h>
 }
 
-#include <android/log.h>
-
 #define JNI_FUNC(retType, bindClass, name)  JNIEXPORT retType JNICALL Java_com_shockwave_pdfium_##bindClass##_##name
 #define JNI_ARGS    JNIEnv *env, jobject thiz
 
 #define LOG_TAG "jniPdfium"
+
+#ifdef __ANDROID__
+#include <android/log.h>
+
 #define LOGI(...)   __android_log_print(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
 #define LOGE(...)   __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, __VA_ARGS__)
 #define LOGD(...)   __android_log_print(ANDROID_LOG_DEBUG, LOG_TAG, __VA_ARGS__)
+#else
+//Host build: errors to stderr, debug logs dropped so they don't skew benchmarks
+#include <stdio.h>
+
+#define LOGI(...)   (fprintf(stderr, LOG_TAG ": " __VA_ARGS__), fputc('\n', stderr))
+#define LOGE(...)   (fprintf(stderr, LOG_TAG ": " __VA_ARGS__), fputc('\n', stderr))
+#define LOGD(...)   ((void)0)
+#endif
 
 #endif
\ No newline at end of file
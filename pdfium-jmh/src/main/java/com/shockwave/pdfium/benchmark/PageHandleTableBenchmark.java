@@ -0,0 +1,70 @@
+package com.shockwave.pdfium.benchmark;
+
+import com.shockwave.pdfium.util.PageHandleTable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Page handle lookups done by PdfiumCore on every render (hasPage, then get),
+ * against the boxed Map<Integer, Long> it used to be.
+ * Run with -prof gc: the table must report a gc.alloc.rate.norm of ~0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PageHandleTableBenchmark {
+
+    private static final int PAGE_COUNT = 2000;
+    private static final int LOADED_PAGES = 16;
+    //Past the Integer cache, as most pages of a long document are
+    private static final int FIRST_LOADED_PAGE = 1000;
+
+    private PageHandleTable table;
+    private Map<Integer, Long> boxed;
+    private int page;
+
+    @Setup
+    public void setup() {
+        table = new PageHandleTable(PAGE_COUNT);
+        boxed = new HashMap<>();
+        for (int i = 0; i < LOADED_PAGES; i++) {
+            int index = FIRST_LOADED_PAGE + i;
+            long handle = 0x7f000000L + i * 0x1000L;
+            table.put(index, handle);
+            boxed.put(index, handle);
+        }
+    }
+
+    private int nextPage() {
+        page = (page + 1) % LOADED_PAGES;
+        return FIRST_LOADED_PAGE + page;
+    }
+
+    @Benchmark
+    public long tableLookup() {
+        int index = nextPage();
+        return table.contains(index) ? table.get(index) : 0;
+    }
+
+    @Benchmark
+    public long boxedMapLookup() {
+        int index = nextPage();
+        Long handle;
+        return boxed.containsKey(index) && (handle = boxed.get(index)) != null ? handle : 0;
+    }
+
+    @Benchmark
+    public int tableEvictionScan() {
+        return table.findEvictable();
+    }
+}
@@ -0,0 +1,106 @@
+package com.shockwave.pdfium.benchmark;
+
+import com.shockwave.pdfium.util.PageLayout;
+import com.shockwave.pdfium.util.PageTransform;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The view math PdfView runs on every touch event: pinch zoom and drag of a single page,
+ * scroll and zoom of continuous pages.
+ * Run with -prof gc: every benchmark must report a gc.alloc.rate.norm of ~0 B/op,
+ * the gesture path doesn't allocate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PageTransformBenchmark {
+
+    private static final int SCREEN_WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 1920;
+    private static final int PAGE_COUNT = 2000;
+    private static final int SPACING = 8;
+    /** Pinch ratio of one event, the fingers moving apart then together */
+    private static final float PINCH_STEP = 1.02f;
+    private static final float DRAG_STEP = 12f;
+    /** Events of a gesture before it changes direction */
+    private static final int EVENTS_PER_DIRECTION = 32;
+
+    private PageTransform page;
+    private PageTransform continuous;
+    private PageLayout layout;
+    private int event;
+
+    @Setup
+    public void setup() {
+        //A4 pages fit to the width of the screen
+        float[] pageSizes = new float[PAGE_COUNT * 2];
+        for (int i = 0; i < PAGE_COUNT; i++) {
+            pageSizes[i * 2] = 595;
+            pageSizes[i * 2 + 1] = 842;
+        }
+        layout = new PageLayout(pageSizes, SCREEN_WIDTH, SPACING);
+        int pageHeight = layout.getPageHeight(0);
+
+        page = new PageTransform();
+        page.setScreenSize(SCREEN_WIDTH, SCREEN_HEIGHT);
+        page.setPageRect(0, (SCREEN_HEIGHT - pageHeight) / 2, SCREEN_WIDTH, (SCREEN_HEIGHT + pageHeight) / 2);
+        page.zoomPage(3, SCREEN_WIDTH / 2, SCREEN_HEIGHT / 2);
+
+        continuous = new PageTransform();
+        continuous.setScreenSize(SCREEN_WIDTH, SCREEN_HEIGHT);
+        continuous.setScroll(0, layout.getTotalHeight() / 2);
+        continuous.zoomScroll(layout, 2, SCREEN_WIDTH / 2, SCREEN_HEIGHT / 2);
+    }
+
+    /** @return 1 then -1 every EVENTS_PER_DIRECTION events, so a run stays around the same place */
+    private int nextDirection() {
+        event++;
+        return (event / EVENTS_PER_DIRECTION) % 2 == 0 ? 1 : -1;
+    }
+
+    @Benchmark
+    public int pinchPage() {
+        float factor = nextDirection() > 0 ? PINCH_STEP : 1 / PINCH_STEP;
+        page.zoomPage(factor, SCREEN_WIDTH / 3, SCREEN_HEIGHT / 3);
+        return page.getPageLeft();
+    }
+
+    @Benchmark
+    public int dragPage() {
+        float distance = nextDirection() * DRAG_STEP;
+        page.movePage(distance, distance);
+        return page.getPageTop();
+    }
+
+    /** A two finger move: the pinch, then the drag of the first finger */
+    @Benchmark
+    public int pinchAndDragPage() {
+        int direction = nextDirection();
+        page.zoomPage(direction > 0 ? PINCH_STEP : 1 / PINCH_STEP, SCREEN_WIDTH / 3, SCREEN_HEIGHT / 3);
+        page.movePage(direction * DRAG_STEP, direction * DRAG_STEP);
+        return page.getPageTop();
+    }
+
+    /** A drag, then the current page looked up as PdfView does after each scroll */
+    @Benchmark
+    public int scrollContinuous() {
+        continuous.scrollBy(layout, 0, nextDirection() * DRAG_STEP * 4);
+        return continuous.centerPage(layout);
+    }
+
+    @Benchmark
+    public int pinchContinuous() {
+        float factor = nextDirection() > 0 ? PINCH_STEP : 1 / PINCH_STEP;
+        continuous.zoomScroll(layout, factor, SCREEN_WIDTH / 3, SCREEN_HEIGHT / 3);
+        return continuous.centerPage(layout);
+    }
+}
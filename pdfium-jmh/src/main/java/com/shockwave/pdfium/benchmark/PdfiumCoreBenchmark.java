@@ -0,0 +1,131 @@
+package com.shockwave.pdfium.benchmark;
+
+import com.shockwave.pdfium.PdfDocument;
+import com.shockwave.pdfium.PdfiumCore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PdfiumCore on a host JVM, against the host build of the JNI library: open, page load,
+ * page sizes, buffer renders at several DPIs and tiles, over the synthetic documents of the
+ * instrumentation benchmarks. Only compiled with -PpdfiumHostLib, see build.gradle.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PdfiumCoreBenchmark {
+
+    private static final int DPI = 160;
+    private static final int TILE_SIZE = 256;
+    private static final int TILE_ZOOM = 4;
+
+    @Param({"VECTOR", "TEXT", "IMAGE"})
+    public String content;
+
+    @Param({"50"})
+    public int pageCount;
+
+    private PdfiumCore core;
+    private File file;
+    private FileInputStream stream;
+    private PdfDocument doc;
+    private int page;
+
+    /** Buffers of a page rendered at renderDpi, and of a tile of it zoomed in */
+    @State(Scope.Thread)
+    public static class Target {
+        @Param({"72", "150", "300"})
+        public int renderDpi;
+
+        ByteBuffer pageBuffer;
+        ByteBuffer tileBuffer;
+        int pageWidth;
+        int pageHeight;
+
+        @Setup(Level.Trial)
+        public void setup(PdfiumCoreBenchmark benchmark) {
+            pageWidth = (int) (benchmark.doc.getPageWidthPoint(0) * renderDpi / 72);
+            pageHeight = (int) (benchmark.doc.getPageHeightPoint(0) * renderDpi / 72);
+            pageBuffer = ByteBuffer.allocateDirect(pageWidth * pageHeight * 4);
+            tileBuffer = ByteBuffer.allocateDirect(TILE_SIZE * TILE_SIZE * 4);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        SyntheticPdf.Content kind = SyntheticPdf.Content.valueOf(content);
+        int amount = kind == SyntheticPdf.Content.IMAGE ? 1024
+                : kind == SyntheticPdf.Content.TEXT ? 70 : 4000;
+        file = SyntheticPdf.write(File.createTempFile("pdfium-benchmark", ".pdf"), pageCount, kind, amount);
+        stream = new FileInputStream(file);
+        core = new PdfiumCore(DPI);
+        doc = core.newDocument(stream.getFD());
+        if (doc.getPageCount() != pageCount) throw new IllegalStateException("Document didn't open");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        core.closeDocument(doc);
+        stream.close();
+        file.delete();
+    }
+
+    private int nextPage() {
+        page = (page + 1) % pageCount;
+        return page;
+    }
+
+    @Benchmark
+    public int openDocument() throws Exception {
+        PdfDocument opened = core.newDocument(stream.getFD());
+        int count = opened.getPageCount();
+        core.closeDocument(opened);
+        return count;
+    }
+
+    /** A cold load: with a capacity of one, the page loaded before is closed */
+    @Benchmark
+    public long loadPage() {
+        core.setPageCapacity(doc, 1);
+        return core.openPage(doc, nextPage());
+    }
+
+    @Benchmark
+    public long pageSizes() {
+        long sum = 0;
+        for (int i = 0; i < pageCount; i++) {
+            sum += core.getPageWidth(doc, i) + core.getPageHeight(doc, i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public boolean renderPage(Target target) {
+        core.setPageCapacity(doc, pageCount);
+        return core.renderPageBuffer(doc, nextPage(), target.pageBuffer, target.pageWidth, target.pageHeight,
+                0, 0, target.pageWidth, target.pageHeight, 0);
+    }
+
+    /** A tile near the center of a page zoomed in */
+    @Benchmark
+    public boolean renderTile(Target target) {
+        int drawWidth = target.pageWidth * TILE_ZOOM;
+        int drawHeight = target.pageHeight * TILE_ZOOM;
+        return core.renderPageBuffer(doc, 0, target.tileBuffer, TILE_SIZE, TILE_SIZE,
+                -drawWidth / 2, -drawHeight / 2, drawWidth, drawHeight, 0);
+    }
+}